@@ -18,11 +18,12 @@ def clean_up():
     os.system(cmd)
     cmd = 'rm -r ../test_coverage/'
     os.system(cmd)
-    cmd = 'rm -r ../test_gen_randoop/'
+    # all but the Randoop suites of pylib/randoop_cache, kept across configs
+    cmd = 'find ../test_gen_randoop/ -mindepth 1 -maxdepth 1 ! -name cache -exec rm -r {} +'
     os.system(cmd)
     cmd = 'rm -r ../randoop_cover/'
     os.system(cmd)
-def run_experiment(configs_dir):
+def run_experiment(configs_dir, anytime=False):
     for subroot, dirs, files in os.walk(configs_dir):
         # run('{}/cleanup'.format(root_dir))
         for config_file in files:
@@ -41,7 +42,11 @@ def run_experiment(configs_dir):
                     continue
                 cmd1 = 'python3 run_1000.py ' + st
                 os.system(cmd1)
-                cmd2 = 'timeout 15m python3 run_2000.py ' + st
+                if anytime:
+                    # result keeps the provisional verdict if the timeout hits
+                    cmd2 = 'timeout 15m python3 run_2000.py --anytime ' + st
+                else:
+                    cmd2 = 'timeout 15m python3 run_2000.py ' + st
                 start_time = time.time()
                 res = run_cmd(cmd2)
                 end_time = time.time()
@@ -60,7 +65,7 @@ def run_experiment(configs_dir):
 
 if __name__ == '__main__':
     configs_dir = '/poracle-experiments/configs/'
-    run_experiment(configs_dir)
+    run_experiment(configs_dir, '--anytime' in sys.argv)
 
             #rename = 'mv ' + config_file +' ' + config_file+'_exp'+ str(i)
             #print(rename)
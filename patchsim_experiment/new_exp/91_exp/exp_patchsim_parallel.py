@@ -0,0 +1,158 @@
+#!/usr/bin/python
+# Runs the configs of exp_patchsim.py in parallel, each patch in a job
+# directory of its own:
+#   jobs/<ID>/             stands in for ../ of this directory: own traces,
+#                          test_coverage and randoop_cover, links to the
+#                          shared patches, source, test_gen_randoop and
+#                          test_costs
+#   jobs/<ID>/exp/         the working directory of run_1000.py and
+#                          run_2000.py: links to the code, bin/ and lib/ of
+#                          this directory, own checkouts and temp files
+# The result directory is moved here as <ID>_exp1 like exp_patchsim.py does,
+# then the job directory is removed. A job is started only when a worker is
+# free, the one minute load average is below the number of cores and
+# MemAvailable covers --mem GB; starts are --stagger seconds apart so the
+# JVMs of the previous job show up in those figures first. The recorded
+# times are taken under that load and are not comparable to serial runs.
+#
+# usage: python3 exp_patchsim_parallel.py [--anytime] [-j N] [--mem GB]
+#                                         [--stagger S] [--keep] [configs_dir]
+import argparse
+import json
+import os
+import shutil
+import subprocess
+import sys
+import threading
+import time
+from os.path import join
+
+EXP = os.path.dirname(os.path.abspath(__file__))
+PARENT = os.path.dirname(EXP)
+JOBS = join(EXP, 'jobs')
+SHARED_EXP = ['src', 'bin', 'lib', 'pylib', 'makefile', 'run.py',
+              'run_1000.py', 'run_2000.py', 'classifier.java',
+              'coverage-agent.jar', 'line-tracer.jar']
+SHARED_PARENT = ['patches', 'source', 'test_gen_randoop', 'test_costs']
+OWN_PARENT = ['traces', 'test_coverage', 'randoop_cover']
+
+
+def configs(configs_dir):
+    for config_file in sorted(os.listdir(configs_dir)):
+        if not config_file.endswith('json'):
+            continue
+        f = open(join(configs_dir, config_file))
+        data = json.load(f)
+        f.close()
+        yield data
+
+
+def mem_available():
+    # bytes, from /proc/meminfo
+    f = open('/proc/meminfo')
+    try:
+        for line in f:
+            if line.startswith('MemAvailable:'):
+                return int(line.split()[1]) * 1024
+    finally:
+        f.close()
+    return 0
+
+
+def admissible(mem):
+    return (os.getloadavg()[0] < os.cpu_count() and
+            mem_available() >= mem * 1024 ** 3)
+
+
+def prepare():
+    # built once here: the jobs share bin/ and the agent jars
+    os.system('cd ' + EXP + ' && make -s build coverage-agent.jar line-tracer.jar')
+    os.makedirs(join(PARENT, 'test_gen_randoop'), exist_ok=True)
+    os.makedirs(join(PARENT, 'test_costs'), exist_ok=True)
+
+
+def make_job(ID):
+    root = join(JOBS, ID)
+    shutil.rmtree(root, ignore_errors=True)
+    exp = join(root, 'exp')
+    os.makedirs(exp)
+    for name in SHARED_PARENT:
+        if os.path.exists(join(PARENT, name)):
+            os.symlink(join(PARENT, name), join(root, name))
+    for name in OWN_PARENT:
+        os.mkdir(join(root, name))
+    for name in SHARED_EXP:
+        if os.path.exists(join(EXP, name)):
+            os.symlink(join(EXP, name), join(exp, name))
+    return root, exp
+
+
+def run_job(data, anytime, keep):
+    ID = data['ID']
+    st = data['project'] + ' ' + data['bug_id'] + ' ' + ID
+    root, exp = make_job(ID)
+    log = open(join(root, 'log'), 'w')
+    subprocess.call('python3 run_1000.py ' + st, shell=True, cwd=exp,
+                    stdout=log, stderr=subprocess.STDOUT)
+    if anytime:
+        # result keeps the provisional verdict if the timeout hits
+        cmd2 = 'timeout 15m python3 run_2000.py --anytime ' + st
+    else:
+        cmd2 = 'timeout 15m python3 run_2000.py ' + st
+    start_time = time.time()
+    res = subprocess.call(cmd2, shell=True, cwd=exp, stdout=log,
+                          stderr=subprocess.STDOUT)
+    elapsed_time = time.time() - start_time
+    log.close()
+    if os.path.exists(join(exp, ID)):
+        f = open(join(exp, ID, 'time'), 'w')
+        f.write(str(elapsed_time) + ' ' + str(res))
+        f.close()
+        shutil.move(join(exp, ID), join(EXP, ID + '_exp1'))
+    if not keep:
+        shutil.rmtree(root, ignore_errors=True)
+    return res
+
+
+def run_experiment(configs_dir, anytime=False, jobs=None, mem=10, stagger=30,
+                   keep=False):
+    jobs = jobs or os.cpu_count()
+    prepare()
+    slots = threading.Semaphore(jobs)
+    workers = []
+
+    def work(data):
+        try:
+            res = run_job(data, anytime, keep)
+            print(data['ID'] + ' ' + str(res))
+        finally:
+            slots.release()
+
+    for data in configs(configs_dir):
+        if os.path.exists(join(EXP, data['ID'] + '_exp1')):
+            continue
+        slots.acquire()
+        while not admissible(mem):
+            time.sleep(stagger)
+        t = threading.Thread(target=work, args=(data,))
+        t.start()
+        workers.append(t)
+        time.sleep(stagger)
+    for t in workers:
+        t.join()
+
+
+if __name__ == '__main__':
+    parser = argparse.ArgumentParser()
+    parser.add_argument('configs_dir', nargs='?',
+                        default='/poracle-experiments/configs/')
+    parser.add_argument('--anytime', action='store_true')
+    parser.add_argument('-j', '--jobs', type=int, default=None)
+    parser.add_argument('--mem', type=float, default=10,
+                        help='GB of MemAvailable needed to start a job')
+    parser.add_argument('--stagger', type=float, default=30)
+    parser.add_argument('--keep', action='store_true',
+                        help='keep the job directories')
+    args = parser.parse_args()
+    run_experiment(args.configs_dir, args.anytime, args.jobs, args.mem,
+                   args.stagger, args.keep)
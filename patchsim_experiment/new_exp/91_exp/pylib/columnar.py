@@ -0,0 +1,43 @@
+import numpy as np
+
+# Reader for the result files written by DefectRepairing.ColumnarFile
+# (pass, fail, gen, dis, dis_2, dict, Length_array, LCS_array).
+
+MAGIC = b'PSCF'
+VERSION = 1
+INT32 = 0
+FLOAT64 = 1
+STRING = 2
+
+DTYPES = {INT32: '<i4', FLOAT64: '<f8'}
+
+
+def read_header(path):
+    with open(path, 'rb') as f:
+        header = f.read(8)
+        if len(header) < 8 or header[:4] != MAGIC or header[4] != VERSION:
+            raise ValueError(path + ' is not a columnar result file')
+        dtype, ndim = header[5], header[6]
+        shape = tuple(int(s) for s in np.frombuffer(f.read(8 * ndim), '<i8'))
+    return dtype, shape, 8 + 8 * ndim
+
+
+def load(path):
+    dtype, shape, offset = read_header(path)
+    if dtype == STRING:
+        n = shape[0]
+        offsets = np.fromfile(path, '<i8', count=n + 1, offset=offset)
+        with open(path, 'rb') as f:
+            f.seek(offset + 8 * (n + 1))
+            data = f.read()
+        return [data[offsets[i]:offsets[i + 1]].decode('utf-8')
+                for i in range(n)]
+    if 0 in shape:
+        return np.empty(shape, DTYPES[dtype])
+    # memory mapped, so large distance matrices are not read up front
+    return np.memmap(path, dtype=DTYPES[dtype], mode='r', offset=offset,
+                     shape=shape)
+
+
+def load_set(path):
+    return set(int(i) for i in load(path))
@@ -1,3 +1,4 @@
+import os
 import random
 random.seed(1737)
 def get_tests(filepath):
@@ -33,3 +34,19 @@ def process_cover_trace(tracefile,shuffle=0,add_fail_test=False):
         random.shuffle(tests)
         tests=tests[:shuffle]
     return tests
+def patched_lines(patch_file):
+    # first changed line of every hunk, the lines MethodInstr used to take
+    line_no_list=[]
+    for hunki in range(len(patch_file)):
+        for i in range(len(patch_file[hunki])):
+            if not patch_file[hunki][i].is_context:
+                line_no_list.append(str(patch_file[hunki][i-1].source_line_no+1))
+                break
+    return line_no_list
+def coverage_agent(source_dir,patch,tracefile):
+    # JVM option loading TestCase.CoverageAgent, pass it in JAVA_TOOL_OPTIONS
+    args=[tracefile]
+    for filei in range(len(patch)):
+        class_name=os.path.splitext(os.path.relpath(patch[filei].source_file,source_dir))[0]
+        args.append(':'.join([class_name]+patched_lines(patch[filei])))
+    return '-javaagent:'+os.path.abspath('coverage-agent.jar')+'='+','.join(args)
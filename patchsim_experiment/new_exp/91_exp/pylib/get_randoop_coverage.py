@@ -1,5 +1,10 @@
 import os
 from unidiff import PatchSet
+from pylib.coverage import coverage_agent
+from pylib import randoop_cache
+
+# seconds the generated suite may run under the coverage agent
+TIMEOUT = 1200
 
 
 def get_path_to_source(path_to_project):
@@ -20,16 +25,11 @@ def run(project, bugid, patch_no, tmp_tracefile='tmp_a'):
     w_buggy = project + bugid + 'b'
     test = 'randoop'
     #
-    testfiledir = '../test_gen_randoop/' + project + '/randoop/' + bugid + '/'
-    targetfile = testfiledir + project + '-' + bugid + 'b-randoop.' + bugid + '.instr.tar.bz2'
-    testfile = testfiledir + project + '-' + bugid + 'b-randoop.' + bugid + '.tar.bz2'
-    targetdir = testfiledir + 'suite'
-    os.system('mkdir ' + targetdir)
-    os.system('tar xvf ' + testfile + ' -C ' + targetdir)
-    os.system('make TestCaseInstr ARGS="' + targetdir + ' ' + tmp_tracefile +
-              ' Randoop"')
-    os.system('cd ' + targetdir + ' && tar -c ./* | bzip2 > ../' + project +
-              '-' + bugid + 'b-randoop.' + bugid + '.instr.tar.bz2')
+    os.system('make -s coverage-agent.jar')
+    os.system('defects4j compile -w ' + w_buggy)
+    cls = randoop_cache.classes(project, bugid, w_buggy)
+    if cls is None:
+        return
     #patch_no=line[3:].split(' ')[1][1:]
     #print(patch_no)
 
@@ -43,28 +43,20 @@ def run(project, bugid, patch_no, tmp_tracefile='tmp_a'):
     #bug_loc=bug_loc[0].replace('.','/')+'.java:'+bug_loc[1]
     print(w_buggy + '_' + patch_no)
     patch = PatchSet.from_filename('../patches/' + patch_no)
-    souce_file_list = []
-    for filei in range(len(patch)):
-        source_file = patch[filei].source_file
-        souce_file_list.append(source_file)
-        line_no_list = []
-        for hunki in range(len(patch[filei])):
-            for i in range(len(patch[filei][hunki])):
-                if not patch[filei][hunki][i].is_context:
-                    line_no_list.append(
-                        str(patch[filei][hunki][i - 1].source_line_no + 1))
-                    break
-        os.system('cp ' + source_file + ' ' + source_file + '.bak')
-        os.system('make MthdInstr ARGS="' + source_file + ' ' + tmp_tracefile +
-                  ' ' + ','.join(line_no_list) + '"')
+    # the generated suite and the checkout are run unmodified, the agent
+    # marks the patched methods and the test methods at class loading
+    agent = coverage_agent(
+        os.path.join(w_buggy, get_path_to_source(w_buggy)), patch,
+        tmp_tracefile)
     if (os.path.exists(tmp_tracefile)):
         os.system('rm ' + tmp_tracefile)
-    os.system('defects4j test -s ' + targetfile + ' -w ' + w_buggy)
+    # the compiled suite is shared by all patches of the bug; a suite that
+    # hangs is stopped, and the coverage the agent wrote until then is kept
+    status = os.system('timeout ' + str(TIMEOUT) + ' java ' + agent + ' -cp ' +
+                       randoop_cache.classpath(w_buggy, cls) +
+                       ' org.junit.runner.JUnitCore ' +
+                       ' '.join(randoop_cache.test_classes(cls)) + ' >/dev/null')
+    if os.WIFEXITED(status) and os.WEXITSTATUS(status) == 124:
+        print('Warning: the Randoop suite timed out after ' + str(TIMEOUT) + ' s')
     os.system('mv ' + tmp_tracefile + ' ../randoop_cover/' + w_buggy + '_' +
               patch_no + '.txt')
-    for source_file in souce_file_list:
-        os.system('rm ' + source_file)
-        os.system('mv ' + source_file + '.bak ' + source_file)
-    os.system('rm -rf ' + w_buggy)
-    os.system('defects4j checkout -p ' + project + ' -v ' + bugid + 'b -w ' +
-              project + bugid + 'b')
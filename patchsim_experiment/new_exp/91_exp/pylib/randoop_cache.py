@@ -0,0 +1,130 @@
+import fcntl
+import glob
+import os
+import re
+import shutil
+import subprocess
+
+# One generated and compiled Randoop suite per bug, shared by every patch of
+# the bug and by run_1000.py and run_2000.py; the first to generate it sets
+# the budget, as when they shared ../test_gen_randoop/<project>:
+#   ../test_gen_randoop/cache/<project>-<bugid>/
+#       suite.tar.bz2   archive written by run_randoop.pl
+#       src/            its sources
+#       classes/        compiled against the buggy checkout
+# Coverage selection and tracing read classes/ directly instead of passing
+# the archive to "defects4j test -s", which extracts and compiles it again.
+
+BUDGET = 420
+CACHE_DIR = '../test_gen_randoop/cache'
+# the lib/ of the makefile's LIBS, wherever the caller runs from
+LIB_DIR = os.path.join(os.path.dirname(os.path.dirname(os.path.abspath(__file__))), 'lib')
+JUNIT = ['junit-4.11.jar', 'hamcrest-core-1.3.jar']
+
+
+def suite_dir(project, bugid):
+    return os.path.abspath(os.path.join(CACHE_DIR, project + '-' + str(bugid)))
+
+
+def lock(project, bugid):
+    # patches of a bug may be traced in parallel, only one of them builds
+    d = suite_dir(project, bugid)
+    os.makedirs(d, exist_ok=True)
+    f = open(os.path.join(d, '.lock'), 'w')
+    fcntl.flock(f, fcntl.LOCK_EX)
+    return f
+
+
+def generate(project, bugid, budget=None):
+    if budget is None:
+        budget = BUDGET
+    d = suite_dir(project, bugid)
+    suite = os.path.join(d, 'suite.tar.bz2')
+    f = lock(project, bugid)
+    try:
+        if not os.path.exists(suite):
+            gen = os.path.join(d, 'gen')
+            os.system('rm -rf ' + gen)
+            os.system('run_randoop.pl -p ' + project + ' -v ' + str(bugid) +
+                      'b -n ' + str(bugid) + ' -o ' + gen + ' -b ' + str(budget))
+            for t in glob.glob(os.path.join(gen, project, 'randoop', str(bugid), '*.tar.bz2')):
+                os.system('mv ' + t + ' ' + suite)
+            os.system('rm -rf ' + gen)
+    finally:
+        f.close()
+    return suite if os.path.exists(suite) else None
+
+
+def classes(project, bugid, w_buggy):
+    # compiled suite, built on first use; w_buggy must be compiled already
+    d = suite_dir(project, bugid)
+    cls = os.path.join(d, 'classes')
+    if os.path.exists(os.path.join(d, 'compiled')):
+        return cls
+    suite = generate(project, bugid)
+    if suite is None:
+        return None
+    f = lock(project, bugid)
+    try:
+        if not os.path.exists(os.path.join(d, 'compiled')):
+            src = os.path.join(d, 'src')
+            os.system('rm -rf ' + src + ' ' + cls)
+            os.system('mkdir -p ' + src + ' ' + cls)
+            os.system('tar xjf ' + suite + ' -C ' + src)
+            sources = glob.glob(os.path.join(src, '**', '*.java'), recursive=True)
+            status = subprocess.call(
+                ['javac', '-nowarn', '-encoding', 'UTF-8', '-d', cls, '-cp',
+                 classpath(w_buggy)] + sources)
+            if status == 0:
+                open(os.path.join(d, 'compiled'), 'w').close()
+    finally:
+        f.close()
+    return cls if os.path.exists(os.path.join(d, 'compiled')) else None
+
+
+def junit():
+    # JUnit from lib/, or else the one Defects4J runs its tests with
+    jars = [os.path.join(LIB_DIR, j) for j in JUNIT]
+    if all(os.path.exists(j) for j in jars):
+        return jars
+    home = os.environ.get('D4J_HOME')
+    d4j = shutil.which('defects4j')
+    if home is None and d4j is not None:
+        # <home>/framework/bin/defects4j
+        home = os.path.dirname(os.path.dirname(os.path.dirname(os.path.realpath(d4j))))
+    if home is None:
+        return jars
+    d4j_lib = os.path.join(home, 'framework', 'projects', 'lib')
+    return sorted(glob.glob(os.path.join(d4j_lib, 'junit-*.jar')) +
+                  glob.glob(os.path.join(d4j_lib, 'hamcrest-*.jar')))
+
+
+def classpath(w_dir, cls=None):
+    cp = subprocess.check_output(
+        'defects4j export -p cp.test -w ' + w_dir, shell=True,
+        stderr=subprocess.DEVNULL).decode().strip()
+    l = [cp] + junit()
+    if cls is not None:
+        l = [cls] + l
+    return ':'.join(l)
+
+
+def test_classes(cls):
+    # RegressionTest0, RegressionTest1, ... but not the RegressionTest suite
+    names = []
+    for root, dirs, files in os.walk(cls):
+        for name in files:
+            if re.match(r'^\w*Test\d+\.class$', name):
+                rel = os.path.relpath(os.path.join(root, name), cls)
+                names.append(rel[:-len('.class')].replace(os.sep, '.'))
+    return sorted(names)
+
+
+def install(cls, w_dir):
+    # copies the compiled suite next to the checkout's test classes, so that
+    # "defects4j test -n -t" runs Randoop tests without the archive
+    d = subprocess.check_output(
+        'defects4j export -p dir.bin.tests -w ' + w_dir, shell=True,
+        stderr=subprocess.DEVNULL).decode().strip()
+    os.system('mkdir -p ' + os.path.join(w_dir, d))
+    os.system('cp -r ' + os.path.join(cls, '.') + ' ' + os.path.join(w_dir, d))
@@ -3,6 +3,8 @@ import time
 import os
 
 from unidiff import PatchSet
+from pylib import tool_server
+from pylib.test_runner import DualTestRunner
 def get_path_to_test(path_to_project):
     f=open(os.path.join(path_to_project,'defects4j.build.properties'),'r')
     for line in f:
@@ -26,48 +28,32 @@ def run(project,bugid,patch_no,tests,tmp_tracefile='tmp_c'):
     os.system('cp '+source_file+' '+source_file+'.bak')
     os.system('cp '+target_file+' '+target_file+'.bak')
 
-    os.system('make instru_class ARGS="-S '+source_file+' -T '+tmp_tracefile+'"')
-    os.system('make instru_class ARGS="-S '+target_file+
-              ' -T '+tmp_tracefile+' '+
+    # both sides run in one JVM, so each one writes its own trace file
+    tracefile_buggy=tmp_tracefile+'_b'
+    tracefile_patched=tmp_tracefile+'_p'
+    tool_server.call('instru_class','-S '+source_file+' -T '+tracefile_buggy)
+    tool_server.call('instru_class','-S '+target_file+
+              ' -T '+tracefile_patched+' '+
               ' -P '+patchfile+
-              ' -F '+target_file+'"')
+              ' -F '+target_file)
     #
     dir_path='../traces/'+w_patched
-    if(os.path.exists(tmp_tracefile)):
-        os.system('rm '+tmp_tracefile)
+    for f in (tracefile_buggy,tracefile_patched):
+        if(os.path.exists(f)):
+            os.system('rm '+f)
     os.system('mkdir '+dir_path)
     os.system('mkdir '+os.path.join(dir_path,'buggy'))
     os.system('mkdir '+os.path.join(dir_path,'patched'))
-    if project=='Time':
-        os.system('defects4j compile -w '+w_buggy)
-        os.system('defects4j compile -w '+w_patched)    
-    # clone
+    os.system('defects4j compile -w '+w_buggy)
+    os.system('defects4j compile -w '+w_patched)
+    # Time and Lang tests change the default TimeZone/Locale, run their sides one after the other
+    runner=DualTestRunner(w_buggy,w_patched,tracefile_buggy,tracefile_patched,
+                          serial=project in ('Time','Lang'))
     for test in tests:
         test=test.strip()
-        testfile=os.path.join(w_buggy,get_path_to_test(w_buggy),test.split('::')[0].replace('.','/')+'.java')
-        if project=='Time':
-            os.system('rm '+tmp_tracefile)
-            status=os.system('timeout 90 defects4j test -t '+test+' -w  '+w_buggy)
-        else:
-            os.system('cp '+testfile+' '+testfile+'.bak')
-            os.system('make GetSingleTest_Chart ARGS="'+testfile+' '+test.split('::')[1]+'"')
-            status=os.system('timeout 90 defects4j test -t '+test+' -w '+w_buggy)
-            os.system('mv '+testfile+'.bak '+testfile)
-        print(testfile)
-        if status==0:
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'buggy','__'.join(test.split('::'))))
-    
-        testfile=os.path.join(w_patched,get_path_to_test(w_patched),test.split('::')[0].replace('.','/')+'.java')
-        if project=='Time':
-            os.system('rm '+tmp_tracefile)
-            status=os.system('timeout 90 defects4j test -t '+test+' -w  '+w_patched)
-        else:
-            os.system('cp '+testfile+' '+testfile+'.bak')
-            os.system('make GetSingleTest_Chart ARGS="'+testfile+' '+test.split('::')[1]+'"')
-            status=os.system('timeout 90 defects4j test -t '+test+' -w '+w_patched)
-            os.system('mv '+testfile+'.bak '+testfile)        
-        if status==0:
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'patched','__'.join(test.split('::'))))
+        name='__'.join(test.split('::'))
+        runner.run(test,os.path.join(dir_path,'buggy',name),os.path.join(dir_path,'patched',name))
+    runner.close()
     # clone
     os.system('mv '+source_file+'.bak '+source_file)
     os.system('mv '+target_file+'.bak '+target_file)
@@ -1,5 +1,6 @@
 import os
 from unidiff import PatchSet
+from pylib import tool_server
 def get_path_to_test(path_to_project):
     f=open(os.path.join(path_to_project,'defects4j.build.properties'),'r')
     for line in f:
@@ -21,11 +22,11 @@ def run(project,bugid,patch_no,randoop_tests,tmp_tracefile='tmp_d'):
     os.system('cp '+source_file+' '+source_file+'.bak')
     os.system('cp '+target_file+' '+target_file+'.bak')
 
-    os.system('make instru_class ARGS="-S '+source_file+' -T '+tmp_tracefile+'"')
-    os.system('make instru_class ARGS="-S '+target_file+
+    tool_server.call('instru_class','-S '+source_file+' -T '+tmp_tracefile)
+    tool_server.call('instru_class','-S '+target_file+
             ' -T '+tmp_tracefile+' '+
             ' -P '+patchfile+
-            ' -F '+target_file+'"')
+            ' -F '+target_file)
     #
     dir_path='../traces/'+w_patched
     if(os.path.exists(tmp_tracefile)):
@@ -0,0 +1,120 @@
+import fcntl
+import json
+import os
+import random
+import time
+
+# Order and budget of the tests traced for a patch. Every traced test leaves
+# its duration and trace lengths in
+#   ../test_costs/<project>-<bugid>.json
+# shared by the patches of the bug. The cost of a test is its tracing time
+# plus the LCS of its buggy and patched traces done by TraceParser; tests not
+# traced yet cost the median of the known ones. Trigger tests go first, then
+# the cheapest, with the tests TraceParser drops for size (more than MAX_CELLS
+# LCS cells) last. Tracing stops taking new tests when the budget is spent,
+# and the patch is classified on the tests traced by then.
+
+HISTORY_DIR = '../test_costs'
+BUDGET = 600  # seconds of tracing per patch
+TIMEOUT = 90  # per test and version, as before
+LCS_RATE = 2e8  # LCS cells per second of TraceParser.diff
+MAX_CELLS = 5e9
+DEFAULT_COST = 10
+
+
+def history_file(project, bugid):
+    return os.path.join(HISTORY_DIR, project + '-' + str(bugid) + '.json')
+
+
+def trace_lines(path):
+    # number of lines hit in a LineTracer trace (big endian ints after MAGIC)
+    if not os.path.exists(path):
+        return 0
+    return max(0, (os.path.getsize(path) - 4) // 4)
+
+
+class Scheduler:
+    def __init__(self, project, bugid, budget=None):
+        self.project = project
+        self.bugid = bugid
+        self.deadline = time.time() + (BUDGET if budget is None else budget)
+        self.history = {}
+        self.first = set()
+        path = history_file(project, bugid)
+        if os.path.exists(path):
+            f = open(path)
+            try:
+                self.history = json.load(f)
+            except ValueError:
+                pass
+            f.close()
+        known = sorted(self.known(t) for t in self.history)
+        self.default = known[len(known) // 2] if known else DEFAULT_COST
+
+    def known(self, test):
+        h = self.history[test]
+        return h['seconds'] + h['lines_b'] * h['lines_p'] / LCS_RATE
+
+    def cost(self, test):
+        if test in self.history:
+            return self.known(test)
+        return self.default
+
+    def informative(self, test):
+        h = self.history.get(test)
+        return h is None or h['lines_b'] * h['lines_p'] <= MAX_CELLS
+
+    def order(self, tests, first=()):
+        # first (the trigger tests) are run whatever the budget
+        first = [t for t in first if t in tests]
+        self.first.update(first)
+        rest = sorted(set(tests) - set(first))
+        # ties, such as tests without history, in a fixed random order
+        random.Random(1737).shuffle(rest)
+        rest.sort(key=lambda t: (not self.informative(t), self.cost(t)))
+        return first + rest
+
+    def cheapest(self, tests, n, prefix=''):
+        # prefix is the one the tests are traced under, 'Randoop.' for those
+        ordered = self.order([prefix + t for t in tests])
+        return [t[len(prefix):] for t in ordered[:n]]
+
+    def remaining(self):
+        return self.deadline - time.time()
+
+    def fits(self, test):
+        if test in self.first:
+            return True
+        r = self.remaining()
+        return r >= 1 and min(self.cost(test), 2 * TIMEOUT) <= r
+
+    def timeout(self, test=None):
+        if test in self.first:
+            return TIMEOUT
+        return max(1, int(min(TIMEOUT, self.remaining())))
+
+    def record(self, test, seconds, trace_buggy, trace_patched):
+        os.makedirs(HISTORY_DIR, exist_ok=True)
+        path = history_file(self.project, self.bugid)
+        # patches of a bug may be traced in parallel
+        lock = open(path + '.lock', 'w')
+        fcntl.flock(lock, fcntl.LOCK_EX)
+        try:
+            history = {}
+            if os.path.exists(path):
+                f = open(path)
+                try:
+                    history = json.load(f)
+                except ValueError:
+                    pass
+                f.close()
+            history[test] = {'seconds': seconds,
+                             'lines_b': trace_lines(trace_buggy),
+                             'lines_p': trace_lines(trace_patched)}
+            f = open(path + '.tmp', 'w')
+            json.dump(history, f)
+            f.close()
+            os.rename(path + '.tmp', path)
+        finally:
+            lock.close()
+        self.history[test] = history[test]
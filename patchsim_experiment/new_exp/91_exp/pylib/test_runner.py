@@ -0,0 +1,123 @@
+import os
+import subprocess
+
+# Client for TestCase.TestRunner: one JVM per checkout instead of one
+# "defects4j test -t" per test.
+
+
+def get_test_classpath(w_dir):
+    return subprocess.check_output(
+        'defects4j export -p cp.test -w ' + w_dir, shell=True,
+        stderr=subprocess.DEVNULL).decode().strip()
+
+
+class TestRunner:
+    def __init__(self, w_dir, tmp_tracefile, timeout=90, jvmargs=''):
+        self.w_dir = w_dir
+        self.tmp_tracefile = os.path.abspath(tmp_tracefile)
+        self.timeout = timeout
+        self.jvmargs = jvmargs
+        self.classpath = get_test_classpath(w_dir)
+        self.proc = None
+        self.proc_timeout = None
+
+    def start(self):
+        # in the checkout, the working directory of "defects4j test"
+        self.proc = subprocess.Popen(
+            'make -s runner WORKDIR=' + os.path.abspath(self.w_dir) +
+            ' JVMARGS="' + self.jvmargs + '" ARGS="' +
+            self.tmp_tracefile + ' ' + str(self.timeout) + ' ' +
+            self.classpath + '"',
+            shell=True,
+            stdin=subprocess.PIPE,
+            stdout=subprocess.PIPE,
+            universal_newlines=True)
+        self.proc_timeout = self.timeout
+
+    def request(self, line):
+        # the answer of the runner, '' if it died; the runner is started
+        # first if needed, and given the current timeout
+        if self.proc is None or self.proc.poll() is not None:
+            self.start()
+        try:
+            if self.proc_timeout != self.timeout:
+                self.proc.stdin.write('timeout ' + str(self.timeout) + '\n')
+                self.proc.stdin.flush()
+                self.proc.stdout.readline()
+                self.proc_timeout = self.timeout
+            self.proc.stdin.write(line + '\n')
+            self.proc.stdin.flush()
+            return self.proc.stdout.readline().strip()
+        except BrokenPipeError:
+            return ''
+
+    def run(self, test, destination, destination_e=None, timeout=None):
+        # returns pass, fail, timeout or error; the traces are moved to
+        # destination and destination_e unless the test timed out or could
+        # not be run
+        if timeout is not None:
+            self.timeout = timeout
+        line = 'run ' + test + ' ' + os.path.abspath(destination)
+        if destination_e is not None:
+            line += ' ' + os.path.abspath(destination_e)
+        res = self.request(line)
+        if res == '' or res == 'timeout':
+            self.proc.wait()
+            self.proc = None
+            return res if res != '' else 'error'
+        return res.split(' ')[0]
+
+    def close(self):
+        if self.proc is not None and self.proc.poll() is None:
+            self.proc.stdin.write('quit\n')
+            self.proc.stdin.flush()
+            self.proc.wait()
+        self.proc = None
+
+
+class DualTestRunner(TestRunner):
+    # runs each test on the buggy and the patched checkout in one JVM, in the
+    # buggy checkout; the two sides must write different trace files
+    def __init__(self, w_buggy, w_patched, tracefile_buggy, tracefile_patched,
+                 timeout=90, jvmargs='', serial=False):
+        self.w_dir = w_buggy
+        self.tracefiles = [os.path.abspath(tracefile_buggy),
+                           os.path.abspath(tracefile_patched)]
+        self.timeout = timeout
+        self.jvmargs = jvmargs
+        self.serial = serial
+        self.classpaths = [get_test_classpath(w_buggy),
+                           get_test_classpath(w_patched)]
+        self.proc = None
+        self.proc_timeout = None
+
+    def start(self):
+        self.proc = subprocess.Popen(
+            'make -s dual_runner WORKDIR=' + os.path.abspath(self.w_dir) +
+            ' JVMARGS="' + self.jvmargs + '" ARGS="' +
+            ' '.join(self.tracefiles) + ' ' + str(self.timeout) + ' ' +
+            ' '.join(self.classpaths) + (' serial' if self.serial else '') +
+            '"',
+            shell=True,
+            stdin=subprocess.PIPE,
+            stdout=subprocess.PIPE,
+            universal_newlines=True)
+        self.proc_timeout = self.timeout
+
+    def run(self, test, dest_buggy, dest_patched, dest_buggy_e=None,
+            dest_patched_e=None, timeout=None):
+        # returns the results of the buggy and the patched side; timeout is
+        # that of each side
+        if timeout is not None:
+            self.timeout = timeout
+        dests = [dest_buggy, dest_patched]
+        if dest_buggy_e is not None and dest_patched_e is not None:
+            dests += [dest_buggy_e, dest_patched_e]
+        res = self.request('run ' + test + ' ' +
+                           ' '.join(os.path.abspath(d) for d in dests)).split()
+        if len(res) != 2 or 'timeout' in res:
+            self.proc.wait()
+            self.proc = None
+        if len(res) != 2:
+            return 'error', 'error'
+        return res[0], res[1]
@@ -0,0 +1,125 @@
+import atexit
+import os
+import select
+import shlex
+import subprocess
+
+# Client for TestCase.ToolServer: the PatchSim tools run in one resident JVM
+# instead of a "make <target>" (a fresh JVM loading JDT) per call. When the
+# server cannot be started, calls fall back to make.
+
+TARGETS = {
+    'instru_class': 'DefectRepairing.Instrumenter',
+    'PatchInfo': 'TestCase.MethodName',
+    'MthdInstr': 'TestCase.MethodInstr',
+    'TestCaseInstr': 'TestCase.Instrumenter',
+    'GetSingleTest_Chart': 'TestCase.GetSingleTest_Chart',
+    'listTestCase': 'TestCase.listTestCase',
+    'index': 'TestCase.SourceIndex',
+    'parse': 'TestCase.TraceParser',
+    'classify_batch': 'TestCase.classifier',
+}
+KILL_TIMEOUT = 10  # seconds the server has to exit on SIGTERM
+
+
+class ToolServer:
+    def __init__(self):
+        self.proc = None
+
+    def start(self):
+        # stack traces of the tools go to tool_server.log
+        log = open('tool_server.log', 'a')
+        # in the process group of the caller, so that a "timeout" around the
+        # caller ends the server too
+        self.proc = subprocess.Popen('exec make -s tool_server', shell=True,
+                                     stdin=subprocess.PIPE,
+                                     stdout=subprocess.PIPE, stderr=log,
+                                     bufsize=0)
+        log.close()
+
+    def kill(self):
+        # make passes SIGTERM on to the JVM; SIGKILL would only end make
+        if self.proc is not None and self.proc.poll() is None:
+            self.proc.terminate()
+            try:
+                self.proc.wait(KILL_TIMEOUT)
+            except subprocess.TimeoutExpired:
+                self.proc.kill()
+                self.proc.wait()
+        self.proc = None
+
+    def read(self, n, timeout, line=False):
+        # n bytes, or one line when line is set
+        fd = self.proc.stdout.fileno()
+        data = b''
+        while not data.endswith(b'\n') if line else len(data) < n:
+            if not select.select([fd], [], [], timeout)[0]:
+                raise TimeoutError()
+            chunk = os.read(fd, 1 if line else n - len(data))
+            if chunk == b'':
+                raise EOFError()
+            data += chunk
+        return data
+
+    def request(self, fields, timeout=None):
+        # (status, stdout) or None if the server is not available
+        if self.proc is None or self.proc.poll() is not None:
+            self.start()
+        try:
+            self.proc.stdin.write(('\t'.join(fields) + '\n').encode())
+            self.proc.stdin.flush()
+            status, n = self.read(0, timeout, line=True).decode().split()
+            return int(status), self.read(int(n), timeout)
+        except TimeoutError:
+            self.kill()
+            return 124, b''
+        except (BrokenPipeError, EOFError, ValueError):
+            self.kill()
+            return None
+
+    def close(self):
+        if self.proc is not None and self.proc.poll() is None:
+            try:
+                self.proc.stdin.write(b'quit\n')
+                self.proc.stdin.flush()
+                self.proc.wait()
+            except BrokenPipeError:
+                pass
+        self.proc = None
+
+
+server = ToolServer()
+atexit.register(server.close)
+
+
+def make(target, args, timeout=None):
+    p = subprocess.run(('timeout ' + str(timeout) + ' ' if timeout else '') +
+                       'make -s ' + target + ' ARGS="' + args + '"',
+                       shell=True, stdout=subprocess.PIPE)
+    return p.returncode, p.stdout
+
+
+def call(target, args='', timeout=None):
+    # same as: make <target> ARGS="<args>"; returns (exit status, stdout)
+    res = server.request(['main', '', TARGETS[target]] + shlex.split(args),
+                         timeout)
+    if res is None:
+        return make(target, args, timeout)
+    return res
+
+
+def java(cls, args='', classpath='.', timeout=None):
+    # same as: java -cp <classpath> <cls> <args>, for classes outside bin/
+    res = server.request(['main', classpath, cls] + shlex.split(args), timeout)
+    if res is None:
+        p = subprocess.run('java -cp ' + classpath + ' ' + cls + ' ' + args,
+                           shell=True, stdout=subprocess.PIPE)
+        return p.returncode, p.stdout
+    return res
+
+
+def javac(args):
+    res = server.request(['javac'] + shlex.split(args))
+    if res is None:
+        return os.system('javac ' + args), b''
+    return res
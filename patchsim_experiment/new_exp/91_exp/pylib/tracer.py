@@ -1,24 +1,42 @@
 import time
 import os
 from unidiff import PatchSet
-
-btrace_home=os.path.abspath("./lib/btrace")
-
-def extract_trace(src,tgt,start,end):
-    s=''
-    f=open(src)
-    for line in f:
-        if line.startswith('---'):
-            cur=line.strip().split(':')[1]
-            cur=int(cur)
-            if cur>=start and cur<=end:
-                s+=line
-    f.close()
-    f=open(tgt,'w')
-    f.write(s)
+from pylib import randoop_cache
+from pylib import tool_server
+from pylib import scheduler
+from pylib import coverage
+from pylib.test_runner import DualTestRunner
+
+
+def mark(dir_path,name,test=None):
+    # progress files read by TestCase.AnytimeClassifier
+    f=open(os.path.join(dir_path,name),'a')
+    if test is not None:
+        f.write(test+'\n')
     f.close()
 
 
+def reset(project,bugid,patch_no):
+    # the progress files of an earlier run of the patch would read as those of
+    # this one, so they go before a reader of them is started
+    dir_path='../traces/'+project+str(bugid)+'b_'+patch_no
+    os.system('rm -f '+' '.join(os.path.join(dir_path,n) for n in ['expected','finished','done','stop']))
+
+
+def stopped(dir_path):
+    return os.path.exists(os.path.join(dir_path,'stop'))
+
+
+def trace_test(sched,test,runner_test,runner,dir_path):
+    # traces test in both versions, within what is left of the budget
+    name='__'.join(test.split('::'))
+    start=time.time()
+    dests=[os.path.join(dir_path,version,name) for version in ['buggy','patched','buggy_e','patched_e']]
+    runner.run(runner_test,*dests,timeout=sched.timeout(test))
+    sched.record(test,time.time()-start,dests[0],dests[1])
+    mark(dir_path,'finished',name)
+
+
 def run(project,bugid,patch_no,tests,randoop_tests=[],tmp_tracefile='tmp_c'):
     tmp_tracefile+=project+bugid+patch_no+'run_print_trace'
     tmp_tracefile=os.path.join(os.getcwd(),tmp_tracefile)
@@ -45,10 +63,20 @@ def run(project,bugid,patch_no,tests,randoop_tests=[],tmp_tracefile='tmp_c'):
     os.system('mkdir '+os.path.join(dir_path,'patched'))
     os.system('mkdir '+os.path.join(dir_path,'buggy_e'))
     os.system('mkdir '+os.path.join(dir_path,'patched_e'))
+    reset(project,bugid,patch_no)
+    sched=scheduler.Scheduler(project,bugid)
+    tests=sched.order(tests,coverage.get_trgr_tests(project,bugid))
+    randoop_tests=sched.order(['Randoop.'+t.strip() for t in randoop_tests])
+    f=open(os.path.join(dir_path,'expected'),'w')
+    for test in tests:
+        f.write('__'.join(test.strip().split('::'))+'\n')
+    for test in randoop_tests:
+        f.write('__'.join(test.split('::'))+'\n')
+    f.close()
 
     patch_info_file="fdsa.txt"
     os.system("rm -rf "+patch_info_file)
-    os.system('make PatchInfo ARGS="'+os.path.join('../source/',source_file)+' '+patch_info_file+' '+','.join(line_no_list)+'" >/dev/null')
+    tool_server.call('PatchInfo',os.path.join('../source/',source_file)+' '+patch_info_file+' '+','.join(line_no_list))
     f=open(patch_info_file)
     lines=f.readlines()
     patched_class=lines[-1].strip()
@@ -61,48 +89,37 @@ def run(project,bugid,patch_no,tests,randoop_tests=[],tmp_tracefile='tmp_c'):
     os.system('defects4j compile -w '+w_patched)
 
 
-    f=open("%s/AllLines_pattern.java"%(btrace_home))
-    s=f.read()
-    f.close()
-    s=s.replace('__CLASS__NAME__',patched_class)
-    f=open("%s/AllLines.java"%(btrace_home),'w')
-    f.write(s)
-    f.close()
-    os.system("cd %s && ./btracec AllLines.java"%(btrace_home))
+    # records the lines of the patched class, and those of the patched method in <trace file>_e;
+    # one JVM runs each test on both checkouts, in a class loader per side and test, from the
+    # buggy checkout like defects4j test
+    os.system('make -s line-tracer.jar')
+    jvmargs='-Djava.awt.headless=true -javaagent:%s=class=%s,range=%d:%d' % (os.path.abspath('line-tracer.jar'), patched_class, start_line, end_line)
 
-    jvmargs=" -a -Djvmargs=\-javaagent:%s/btrace\-agent.jar=noserver,debug=true,scriptOutputFile=%s,script=%s/AllLines.class" % (btrace_home, tmp_tracefile, btrace_home)
-
-    for test in tests:
-        test=test.strip()
-        
-        os.system('timeout 90 defects4j test -n -t '+test+' -w '+w_buggy+jvmargs)
-        if os.path.exists(tmp_tracefile):
-            extract_trace(tmp_tracefile,os.path.join(dir_path,'buggy_e','__'.join(test.split('::'))),start_line,end_line)
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'buggy','__'.join(test.split('::'))))
-
-
-        os.system('timeout 90 defects4j test -n -t '+test+' -w  '+w_patched+jvmargs)
-        if os.path.exists(tmp_tracefile):
-            extract_trace(tmp_tracefile,os.path.join(dir_path,'patched_e','__'.join(test.split('::'))),start_line,end_line)
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'patched','__'.join(test.split('::'))))
-
-    cmpl_flag=True
-    testfile='../test_gen_randoop/'+project+'/randoop/'+bugid+'/'+project+'-'+bugid+'b-randoop.'+bugid+'.tar.bz2'
-    for Test_Case in randoop_tests:
-        test='Randoop.'+Test_Case.strip()
-        if(cmpl_flag):
-            os.system('timeout 90 defects4j test -s '+testfile+' -t '+Test_Case.strip()+' -w '+w_buggy+jvmargs)
-        else:
-            os.system('timeout 90 defects4j test -n -s '+testfile+' -t '+Test_Case.strip()+' -w '+w_buggy+jvmargs)
-        if os.path.exists(tmp_tracefile):
-            extract_trace(tmp_tracefile,os.path.join(dir_path,'buggy_e','__'.join(test.split('::'))),start_line,end_line)
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'buggy','__'.join(test.split('::'))))
-        if(cmpl_flag):
-            os.system('timeout 90 defects4j test -s '+testfile+' -t '+Test_Case.strip()+' -w '+w_patched+jvmargs)
+    # Time and Lang tests change the default TimeZone/Locale, run their sides one after the other
+    runner=DualTestRunner(w_buggy,w_patched,tmp_tracefile+'_b',tmp_tracefile+'_p',jvmargs=jvmargs,
+                          serial=project in ('Time','Lang'))
+    try:
+        for test in tests:
+            if stopped(dir_path):
+                break
+            test=test.strip()
+            if not sched.fits(test):
+                continue
+            trace_test(sched,test,test,runner,dir_path)
+
+        # every test gets fresh class loaders, so the runner sees the suite once installed
+        randoop_classes=randoop_cache.classes(project,bugid,w_buggy) if randoop_tests else None
+        if randoop_classes is not None:
+            randoop_cache.install(randoop_classes,w_buggy)
+            randoop_cache.install(randoop_classes,w_patched)
         else:
-            os.system('timeout 90 defects4j test -n -s '+testfile+' -t '+Test_Case.strip()+' -w '+w_patched+jvmargs)
-        if os.path.exists(tmp_tracefile):
-            extract_trace(tmp_tracefile,os.path.join(dir_path,'patched_e','__'.join(test.split('::'))),start_line,end_line)
-            os.system('mv '+tmp_tracefile+' '+os.path.join(dir_path,'patched','__'.join(test.split('::'))))
-        cmpl_flag=False
-
+            randoop_tests=[]
+        for test in randoop_tests:
+            if stopped(dir_path):
+                break
+            if not sched.fits(test):
+                continue
+            trace_test(sched,test,test[len('Randoop.'):],runner,dir_path)
+    finally:
+        runner.close()
+    mark(dir_path,'done')
@@ -1,10 +1,14 @@
 import os
+import subprocess
 import pylib.run_trace_randoop
 import pylib.run_print_trace
 import pylib.get_randoop_coverage
 import pylib.get_test_coverage
 import pylib.coverage
 import pylib.tracer
+import pylib.tool_server
+import pylib.randoop_cache
+import pylib.scheduler
 import sys
 import logging
 
@@ -34,10 +38,7 @@ def checkout(project, bugid, patch_no):
 
 def gen_test_randoop(project, bug_id):
     logger.info('Generate tests with Randoop')
-    if not os.path.exists('../test_gen_randoop/' + project + '/randoop/' +
-                          str(bug_id)):
-        os.system('run_randoop.pl -p ' + project + ' -v ' + str(bug_id) +
-                  'b -n ' + str(bug_id) + ' -o ../test_gen_randoop -b 420')
+    pylib.randoop_cache.generate(project, bug_id)
 
 
 def trace(project, bugid, patch_no):
@@ -56,9 +57,10 @@ def trace(project, bugid, patch_no):
         print('Warning: Randoop failed to generate tests')
         randoop_tests = []
     else:
-        randoop_tests = pylib.coverage.process_cover_trace(
-            '../randoop_cover/' + project + bugid + 'b_' + patch_no + ".txt",
-            20)
+        randoop_tests = pylib.scheduler.Scheduler(project, bugid).cheapest(
+            pylib.coverage.process_cover_trace(
+                '../randoop_cover/' + project + bugid + 'b_' + patch_no +
+                ".txt"), 20, 'Randoop.')
 
     if not os.path.exists('../test_coverage/' + project + bugid + 'b_' +
                           patch_no + ".txt"):
@@ -88,26 +90,59 @@ def parse_trace(project, bugid, patch_no):
     print('parsing traces.....................')
     if os.path.exists(os.path.join(patch_no, 'LCS_array')):
         return
-    val = os.system('timeout 3600 make parse ARGS="' + project + ' ' + bugid +
-                    ' ' + patch_no + ' ' +
-                    os.path.join(os.getcwd(), '../traces') + ' ' +
-                    os.path.join(os.getcwd(), '../patches') + ' ' +
-                    os.path.join(os.getcwd(), 'pylib/projects/') +
-                    '" 2>/dev/null >/dev/null')
+    val, out = pylib.tool_server.call(
+        'parse', project + ' ' + bugid + ' ' + patch_no + ' ' +
+        os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/'), timeout=3600)
     if val != 0:
         print('error')
     return
 
 
 def classify(patch_id):
-    os.system('javac classifier.java 2>/dev/null')
-    os.system('java classifier ' + patch_id + '>' + patch_id + '/result')
+    if os.path.exists('classifier.java') and (
+            not os.path.exists('classifier.class') or
+            os.path.getmtime('classifier.java') >
+            os.path.getmtime('classifier.class')):
+        pylib.tool_server.javac('-cp bin/ classifier.java')
+    val, out = pylib.tool_server.java('classifier', patch_id, '.:bin/')
+    f = open(patch_id + '/result', 'wb')
+    f.write(out)
+    f.close()
     f = open(patch_id + '/result')
     res = f.readline().strip()
     f.close()
     return res
 
 
+def classify_batch(project, bugid, patches, threads=os.cpu_count()):
+    # the traces of all the patches parsed in one TestCase.classifier batch
+    # call, on threads threads, so that the buggy traces they share are read
+    # and compared once; then classify of each patch
+    todo = [p for p in patches
+            if not os.path.exists(os.path.join(p, 'LCS_array'))]
+    if todo:
+        for patch_no in todo:
+            os.makedirs(patch_no, exist_ok=True)
+        print('parsing traces.....................')
+        val, out = pylib.tool_server.call(
+            'classify_batch', 'batch ' + project + ' ' + bugid + ' ' +
+            os.path.join(os.getcwd(), '../traces') + ' ' +
+            os.path.join(os.getcwd(), '../patches') + ' ' +
+            os.path.join(os.getcwd(), 'pylib/projects/') + ' ' +
+            str(threads) + ' ' + ' '.join(todo), timeout=3600 * len(todo))
+        if val != 0:
+            print('error')
+    results = {}
+    for patch_no in patches:
+        if not os.path.exists(os.path.join(patch_no, 'dis_2')):
+            results[patch_no] = 'error'
+            continue
+        results[patch_no] = classify(patch_no)
+    return results
+
+
 def run(project, bugid, patch_no):
     checkout(project, bugid, patch_no)
     gen_test_randoop(project, bugid)
@@ -119,5 +154,83 @@ def run(project, bugid, patch_no):
     os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
 
 
+def run_batch(project, bugid, patches):
+    gen_test_randoop(project, bugid)
+    for patch_no in patches:
+        checkout(project, bugid, patch_no)
+        trace(project, bugid, patch_no)
+    results = classify_batch(project, bugid, patches)
+    for patch_no in patches:
+        print(patch_no + ' ' + results[patch_no])
+        os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
+    os.system('rm -rf ' + project + bugid + 'b')
+
+
+def start_pipelined(project, bugid, patch_no):
+    # parses the traces of each test as soon as it finished, see TestCase.PipelinedParser
+    os.system("mkdir -p " + patch_no)
+    return subprocess.Popen(
+        'exec make parse_pipelined ARGS="' + project + ' ' + bugid + ' ' +
+        patch_no + ' ' + os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/') + '" >/dev/null',
+        shell=True)
+
+
+def run_pipelined(project, bugid, patch_no):
+    checkout(project, bugid, patch_no)
+    gen_test_randoop(project, bugid)
+    pylib.tracer.reset(project, bugid, patch_no)
+    parser = start_pipelined(project, bugid, patch_no)
+    try:
+        if trace(project, bugid, patch_no) != 0:
+            return
+        parser.wait()
+    finally:
+        if parser.poll() is None:
+            parser.terminate()
+    print(classify(patch_no))
+    os.system('rm -rf ' + project + bugid + 'b')
+    os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
+
+
+def start_anytime(project, bugid, patch_no):
+    # classifies from the traces as they are written, see TestCase.AnytimeClassifier
+    os.system("mkdir -p " + patch_no)
+    return subprocess.Popen(
+        'exec make anytime ARGS="' + project + ' ' + bugid + ' ' + patch_no + ' ' +
+        os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/') + '" >/dev/null 2>&1',
+        shell=True)
+
+
+def run_anytime(project, bugid, patch_no):
+    checkout(project, bugid, patch_no)
+    gen_test_randoop(project, bugid)
+    pylib.tracer.reset(project, bugid, patch_no)
+    classifier = start_anytime(project, bugid, patch_no)
+    try:
+        if trace(project, bugid, patch_no) != 0:
+            return
+        classifier.wait()
+    finally:
+        if classifier.poll() is None:
+            classifier.terminate()
+    if os.path.exists(patch_no + '/result'):
+        f = open(patch_no + '/result')
+        print(f.readline().strip())
+        f.close()
+    os.system('rm -rf ' + project + bugid + 'b')
+    os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
+
+
 if __name__ == '__main__':
-    run(sys.argv[1], sys.argv[2], sys.argv[3])
+    if sys.argv[1] == '--batch':
+        run_batch(sys.argv[2], sys.argv[3], sys.argv[4:])
+    elif sys.argv[1] == '--pipelined':
+        run_pipelined(sys.argv[2], sys.argv[3], sys.argv[4])
+    elif sys.argv[1] == '--anytime':
+        run_anytime(sys.argv[2], sys.argv[3], sys.argv[4])
+    else:
+        run(sys.argv[1], sys.argv[2], sys.argv[3])
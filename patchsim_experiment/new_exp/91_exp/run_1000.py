@@ -5,6 +5,9 @@ import pylib.get_randoop_coverage
 import pylib.get_test_coverage
 import pylib.coverage
 import pylib.tracer
+import pylib.tool_server
+import pylib.randoop_cache
+import pylib.scheduler
 import sys
 import logging
 
@@ -34,10 +37,7 @@ def checkout(project, bugid, patch_no):
 
 def gen_test_randoop(project, bug_id):
     logger.info('Generate tests with Randoop')
-    if not os.path.exists('../test_gen_randoop/' + project + '/randoop/' +
-                          str(bug_id)):
-        os.system('run_randoop.pl -p ' + project + ' -v ' + str(bug_id) +
-                  'b -n ' + str(bug_id) + ' -o ../test_gen_randoop -b 180')
+    pylib.randoop_cache.generate(project, bug_id, 180)
 
 
 def trace(project, bugid, patch_no):
@@ -56,9 +56,10 @@ def trace(project, bugid, patch_no):
         print('Warning: Randoop failed to generate tests')
         randoop_tests = []
     else:
-        randoop_tests = pylib.coverage.process_cover_trace(
-            '../randoop_cover/' + project + bugid + 'b_' + patch_no + ".txt",
-            20)
+        randoop_tests = pylib.scheduler.Scheduler(project, bugid).cheapest(
+            pylib.coverage.process_cover_trace(
+                '../randoop_cover/' + project + bugid + 'b_' + patch_no +
+                ".txt"), 20, 'Randoop.')
 
     if not os.path.exists('../test_coverage/' + project + bugid + 'b_' +
                           patch_no + ".txt"):
@@ -88,20 +89,22 @@ def parse_trace(project, bugid, patch_no):
     print('parsing traces.....................')
     if os.path.exists(os.path.join(patch_no, 'LCS_array')):
         return
-    val = os.system('timeout 3600 make parse ARGS="' + project + ' ' + bugid +
-                    ' ' + patch_no + ' ' +
-                    os.path.join(os.getcwd(), '../traces') + ' ' +
-                    os.path.join(os.getcwd(), '../patches') + ' ' +
-                    os.path.join(os.getcwd(), 'pylib/projects/') +
-                    '" 2>/dev/null >/dev/null')
+    val, out = pylib.tool_server.call(
+        'parse', project + ' ' + bugid + ' ' + patch_no + ' ' +
+        os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/'), timeout=3600)
     if val != 0:
         print('error')
     return
 
 
 def classify(patch_id):
-    os.system('javac classifier.java 2>/dev/null')
-    os.system('java classifier ' + patch_id + '>' + patch_id + '/result')
+    pylib.tool_server.javac('-cp bin/ classifier.java')
+    val, out = pylib.tool_server.java('classifier', patch_id, '.:bin/')
+    f = open(patch_id + '/result', 'wb')
+    f.write(out)
+    f.close()
     f = open(patch_id + '/result')
     res = f.readline().strip()
     f.close()
@@ -1,10 +1,14 @@
 import os
+import subprocess
 import pylib.run_trace_randoop
 import pylib.run_print_trace
 import pylib.get_randoop_coverage
 import pylib.get_test_coverage
 import pylib.coverage
 import pylib.tracer
+import pylib.tool_server
+import pylib.randoop_cache
+import pylib.scheduler
 import sys
 import logging
 
@@ -34,10 +38,7 @@ def checkout(project, bugid, patch_no):
 
 def gen_test_randoop(project, bug_id):
     logger.info('Generate tests with Randoop')
-    if not os.path.exists('../test_gen_randoop/' + project + '/randoop/' +
-                          str(bug_id)):
-        os.system('run_randoop.pl -p ' + project + ' -v ' + str(bug_id) +
-                  'b -n ' + str(bug_id) + ' -o ../test_gen_randoop -b 420')
+    pylib.randoop_cache.generate(project, bug_id)
 
 
 def trace(project, bugid, patch_no):
@@ -56,9 +57,10 @@ def trace(project, bugid, patch_no):
         print('Warning: Randoop failed to generate tests')
         randoop_tests = []
     else:
-        randoop_tests = pylib.coverage.process_cover_trace(
-            '../randoop_cover/' + project + bugid + 'b_' + patch_no + ".txt",
-            20)
+        randoop_tests = pylib.scheduler.Scheduler(project, bugid).cheapest(
+            pylib.coverage.process_cover_trace(
+                '../randoop_cover/' + project + bugid + 'b_' + patch_no +
+                ".txt"), 20, 'Randoop.')
 
     if not os.path.exists('../test_coverage/' + project + bugid + 'b_' +
                           patch_no + ".txt"):
@@ -88,20 +90,22 @@ def parse_trace(project, bugid, patch_no):
     print('parsing traces.....................')
     if os.path.exists(os.path.join(patch_no, 'LCS_array')):
         return
-    val = os.system('make parse ARGS="' + project + ' ' + bugid +
-                    ' ' + patch_no + ' ' +
-                    os.path.join(os.getcwd(), '../traces') + ' ' +
-                    os.path.join(os.getcwd(), '../patches') + ' ' +
-                    os.path.join(os.getcwd(), 'pylib/projects/') +
-                    '" 2>/dev/null >/dev/null')
+    val, out = pylib.tool_server.call(
+        'parse', project + ' ' + bugid + ' ' + patch_no + ' ' +
+        os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/'))
     if val != 0:
         print('error')
     return
 
 
 def classify(patch_id):
-    os.system('javac classifier.java 2>/dev/null')
-    os.system('java classifier ' + patch_id + '>' + patch_id + '/result')
+    pylib.tool_server.javac('-cp bin/ classifier.java')
+    val, out = pylib.tool_server.java('classifier', patch_id, '.:bin/')
+    f = open(patch_id + '/result', 'wb')
+    f.write(out)
+    f.close()
     f = open(patch_id + '/result')
     res = f.readline().strip()
     f.close()
@@ -117,5 +121,38 @@ def run(project, bugid, patch_no):
     os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
 
 
+def start_anytime(project, bugid, patch_no):
+    # classifies from the traces as they are written, see TestCase.AnytimeClassifier
+    os.system("mkdir -p " + patch_no)
+    return subprocess.Popen(
+        'exec make anytime ARGS="' + project + ' ' + bugid + ' ' + patch_no + ' ' +
+        os.path.join(os.getcwd(), '../traces') + ' ' +
+        os.path.join(os.getcwd(), '../patches') + ' ' +
+        os.path.join(os.getcwd(), 'pylib/projects/') + '" >/dev/null 2>&1',
+        shell=True)
+
+
+def run_anytime(project, bugid, patch_no):
+    gen_test_randoop(project, bugid)
+    pylib.tracer.reset(project, bugid, patch_no)
+    classifier = start_anytime(project, bugid, patch_no)
+    try:
+        if trace(project, bugid, patch_no) != 0:
+            return
+        classifier.wait()
+    finally:
+        if classifier.poll() is None:
+            classifier.terminate()
+    if os.path.exists(patch_no + '/result'):
+        f = open(patch_no + '/result')
+        print(f.readline().strip())
+        f.close()
+    os.system('rm -rf ' + project + bugid + 'b')
+    os.system('rm -rf ' + project + bugid + 'b_' + patch_no)
+
+
 if __name__ == '__main__':
-    run(sys.argv[1], sys.argv[2], sys.argv[3])
+    if sys.argv[1] == '--anytime':
+        run_anytime(sys.argv[2], sys.argv[3], sys.argv[4])
+    else:
+        run(sys.argv[1], sys.argv[2], sys.argv[3])
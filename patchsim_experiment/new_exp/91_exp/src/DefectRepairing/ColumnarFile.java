@@ -0,0 +1,293 @@
+package DefectRepairing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * Little-endian columnar replacement for jPickle, readable from numpy (pylib/columnar.py).
+ *
+ * header: "PSCF" | version:u8 | dtype:u8 | ndim:u8 | pad:u8 | shape:i64[ndim]
+ * data:   int32[] | float64[] (row major) | strings as i64 offsets[n+1] followed by utf-8 bytes
+ */
+public class ColumnarFile {
+	public static final byte[] MAGIC = { 'P', 'S', 'C', 'F' };
+	public static final byte VERSION = 1;
+	public static final byte INT32 = 0;
+	public static final byte FLOAT64 = 1;
+	public static final byte STRING = 2;
+
+	/*
+	 * distance matrix backed by the mapped file, nothing is read until get(); the file is mapped
+	 * in chunks of CHUNK values since a mapping stops at 2 GB, so rows * cols may exceed an int
+	 */
+	public static class Matrix {
+		static final int CHUNK = 1 << 27;
+
+		DoubleBuffer[] bufs;
+		public final int rows, cols;
+
+		Matrix(DoubleBuffer[] _bufs, int _rows, int _cols) {
+			bufs = _bufs;
+			rows = _rows;
+			cols = _cols;
+		}
+
+		/* a matrix read by jPickle, from before the columnar files */
+		public static Matrix of(double[][] a) {
+			int rows = a.length, cols = a.length == 0 ? 0 : a[0].length;
+			long n = (long) rows * cols;
+			DoubleBuffer[] bufs = new DoubleBuffer[(int) ((n + CHUNK - 1) / CHUNK)];
+			for (int c = 0; c < bufs.length; c++)
+				bufs[c] = DoubleBuffer.allocate((int) Math.min(CHUNK, n - (long) c * CHUNK));
+			for (int i = 0; i < rows; i++)
+				for (int j = 0; j < cols; j++) {
+					long k = (long) i * cols + j;
+					bufs[(int) (k / CHUNK)].put((int) (k % CHUNK), a[i][j]);
+				}
+			return new Matrix(bufs, rows, cols);
+		}
+
+		public double get(int i, int j) {
+			long k = (long) i * cols + j;
+			return bufs[(int) (k / CHUNK)].get((int) (k % CHUNK));
+		}
+
+		public double[][] toArray() {
+			double[][] a = new double[rows][cols];
+			for (int i = 0; i < rows; i++)
+				for (int j = 0; j < cols; j++)
+					a[i][j] = get(i, j);
+			return a;
+		}
+	}
+
+	static ByteBuffer header(byte dtype, long... shape) {
+		ByteBuffer b = ByteBuffer.allocate(8 + 8 * shape.length).order(ByteOrder.LITTLE_ENDIAN);
+		b.put(MAGIC).put(VERSION).put(dtype).put((byte) shape.length).put((byte) 0);
+		for (long s : shape)
+			b.putLong(s);
+		b.flip();
+		return b;
+	}
+
+	static void write(String FilePath, ByteBuffer... parts) {
+		try {
+			RandomAccessFile f = new RandomAccessFile(FilePath, "rw");
+			f.setLength(0);
+			FileChannel ch = f.getChannel();
+			for (ByteBuffer p : parts)
+				while (p.hasRemaining())
+					ch.write(p);
+			f.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void dump(Collection<Integer> s, String FilePath) {
+		ByteBuffer b = ByteBuffer.allocate(4 * s.size()).order(ByteOrder.LITTLE_ENDIAN);
+		for (Integer i : s)
+			b.putInt(i);
+		b.flip();
+		write(FilePath, header(INT32, s.size()), b);
+	}
+
+	public static void dump(double[] a, String FilePath) {
+		ByteBuffer b = ByteBuffer.allocate(8 * a.length).order(ByteOrder.LITTLE_ENDIAN);
+		b.asDoubleBuffer().put(a);
+		write(FilePath, header(FLOAT64, a.length), b);
+	}
+
+	public static void dump(double[][] a, String FilePath) {
+		int cols = a.length == 0 ? 0 : a[0].length;
+		// 8 * rows * cols overflows an int from 16384 x 16384 on, so the rows go out one by one
+		ByteBuffer[] parts = new ByteBuffer[a.length + 1];
+		parts[0] = header(FLOAT64, a.length, cols);
+		for (int i = 0; i < a.length; i++) {
+			ByteBuffer b = ByteBuffer.allocate(8 * cols).order(ByteOrder.LITTLE_ENDIAN);
+			b.asDoubleBuffer().put(a[i]);
+			parts[i + 1] = b;
+		}
+		write(FilePath, parts);
+	}
+
+	public static void dump(String[] a, String FilePath) {
+		byte[][] enc = new byte[a.length][];
+		long total = 0;
+		for (int i = 0; i < a.length; i++) {
+			enc[i] = a[i] == null ? new byte[0] : a[i].getBytes(StandardCharsets.UTF_8);
+			total += enc[i].length;
+		}
+		ByteBuffer off = ByteBuffer.allocate(8 * (a.length + 1)).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer data = ByteBuffer.allocate((int) total);
+		long pos = 0;
+		off.putLong(pos);
+		for (byte[] e : enc) {
+			data.put(e);
+			pos += e.length;
+			off.putLong(pos);
+		}
+		off.flip();
+		data.flip();
+		write(FilePath, header(STRING, a.length), off, data);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void dump(Object o, String FilePath) {
+		if (o instanceof Collection)
+			dump((Collection<Integer>) o, FilePath);
+		else if (o instanceof double[][])
+			dump((double[][]) o, FilePath);
+		else if (o instanceof double[])
+			dump((double[]) o, FilePath);
+		else if (o instanceof String[])
+			dump((String[]) o, FilePath);
+		else
+			jPickle.dump(o, FilePath);
+	}
+
+	public static boolean isColumnar(String FilePath) {
+		byte[] m = new byte[4];
+		try {
+			FileInputStream in = new FileInputStream(FilePath);
+			int n = in.read(m);
+			in.close();
+			return n == 4 && m[0] == MAGIC[0] && m[1] == MAGIC[1] && m[2] == MAGIC[2] && m[3] == MAGIC[3];
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	static MappedByteBuffer map(String FilePath) throws IOException {
+		RandomAccessFile f = new RandomAccessFile(new File(FilePath), "r");
+		MappedByteBuffer b = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+		f.close();
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		return b;
+	}
+
+	/* positions b at the data section and returns the shape */
+	static long[] readHeader(ByteBuffer b, byte dtype) throws IOException {
+		byte[] m = new byte[4];
+		b.get(m);
+		byte version = b.get(), type = b.get(), ndim = b.get();
+		b.get();
+		if (m[0] != MAGIC[0] || m[1] != MAGIC[1] || m[2] != MAGIC[2] || m[3] != MAGIC[3] || version != VERSION
+				|| type != dtype)
+			throw new IOException("not a columnar file of type " + dtype);
+		long[] shape = new long[ndim];
+		for (int i = 0; i < ndim; i++)
+			shape[i] = b.getLong();
+		return shape;
+	}
+
+	public static Set<Integer> loadIntSet(String FilePath) {
+		Set<Integer> s = new TreeSet<Integer>();
+		try {
+			MappedByteBuffer b = map(FilePath);
+			long[] shape = readHeader(b, INT32);
+			IntBuffer ib = b.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			for (int i = 0; i < shape[0]; i++)
+				s.add(ib.get(i));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return s;
+	}
+
+	public static double[] loadDoubles(String FilePath) {
+		try {
+			MappedByteBuffer b = map(FilePath);
+			long[] shape = readHeader(b, FLOAT64);
+			double[] a = new double[(int) shape[0]];
+			b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(a);
+			return a;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	public static Matrix loadMatrix(String FilePath) {
+		try {
+			RandomAccessFile f = new RandomAccessFile(new File(FilePath), "r");
+			try {
+				FileChannel ch = f.getChannel();
+				ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(f.length(), 8 + 8 * 2))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				long[] shape = readHeader(b, FLOAT64);
+				long n = shape[0] * shape[1];
+				DoubleBuffer[] bufs = new DoubleBuffer[(int) ((n + Matrix.CHUNK - 1) / Matrix.CHUNK)];
+				for (int c = 0; c < bufs.length; c++) {
+					long count = Math.min(Matrix.CHUNK, n - (long) c * Matrix.CHUNK);
+					bufs[c] = ch.map(FileChannel.MapMode.READ_ONLY, b.position() + 8L * c * Matrix.CHUNK, 8 * count)
+							.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+				}
+				return new Matrix(bufs, (int) shape[0], (int) shape[1]);
+			} finally {
+				f.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	public static String[] loadStrings(String FilePath) {
+		try {
+			MappedByteBuffer b = map(FilePath);
+			int n = (int) readHeader(b, STRING)[0];
+			long[] off = new long[n + 1];
+			for (int i = 0; i <= n; i++)
+				off[i] = b.getLong();
+			int base = b.position();
+			String[] a = new String[n];
+			for (int i = 0; i < n; i++) {
+				byte[] e = new byte[(int) (off[i + 1] - off[i])];
+				b.position(base + (int) off[i]);
+				b.get(e);
+				a[i] = new String(e, StandardCharsets.UTF_8);
+			}
+			return a;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/*
+	 * reads columnar files and falls back to jPickle for results written before; a 2-D array is
+	 * returned as the Matrix view of the file, not copied into a double[][]
+	 */
+	public static Object load(String FilePath) {
+		if (!isColumnar(FilePath))
+			return jPickle.load(FilePath);
+		try {
+			ByteBuffer b = map(FilePath);
+			b.position(5);
+			byte dtype = b.get(), ndim = b.get();
+			if (dtype == INT32)
+				return loadIntSet(FilePath);
+			if (dtype == STRING)
+				return loadStrings(FilePath);
+			if (ndim == 2)
+				return loadMatrix(FilePath);
+			return loadDoubles(FilePath);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+}
@@ -90,7 +90,8 @@ public class Instrumenter {
 	public static int curChar = 0;
 	public static String outputBuffer = new String();
 	public static String source = new String();
-	public static Map<Integer,LineNumber> LineNumberMap=new HashMap<Integer, LineNumber>();
+	public static TestCase.PatchLineMap LineNumberMap=null;
+	public static int NbLines=0;
 	public static boolean isPatched=false;
 	public static String PatchFile = "";
 	
@@ -102,14 +103,15 @@ public class Instrumenter {
 	}
 
 	public static void ConstructMap(int Nb_Lines) {
-		LineNumberMap=TestCase.patchparser.process(Nb_Lines, PatchFile);
+		LineNumberMap=TestCase.PatchLineMap.get(PatchFile);
+		NbLines=Math.max(Nb_Lines, LineNumberMap.lastLine());
 		
 
 	}
 
 	public static String getLineNumber(int ln) {
-		if(LineNumberMap.containsKey(ln)) 
-			return LineNumberMap.get(ln).toString();
+		if(LineNumberMap!=null && ln>=1 && ln<=NbLines) 
+			return LineNumberMap.lineNumber(ln).toString();
 		else 
 			return String.valueOf(ln);
 	}
@@ -251,7 +253,7 @@ public class Instrumenter {
 			final CompilationUnit cu = (CompilationUnit) parser.createAST(null);
 			System.out.println(cu.getLineNumber(0));
 			if(isPatched){
-				LineNumberMap=new HashMap<Integer, LineNumber>();
+				LineNumberMap=null;
 				if(FilePath.endsWith(PatchedFile))
 					System.out.println(cu.getLineNumber(cu.getLength()));
 					ConstructMap(cu.getLineNumber(cu.getLength()-1));
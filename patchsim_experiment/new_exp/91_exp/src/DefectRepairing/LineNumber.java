@@ -21,6 +21,14 @@ public  class LineNumber implements Cloneable, Comparable<LineNumber> {
 		return o;
 	}
 	
+	public int getLine() {
+		return line;
+	}
+
+	public int getAddedline() {
+		return addedline;
+	}
+
 	LineNumber() {
 		line = 0;
 		addedline = 0;
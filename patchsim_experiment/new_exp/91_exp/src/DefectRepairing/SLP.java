@@ -0,0 +1,253 @@
+package DefectRepairing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Straight-line program (grammar compressed trace) used by Spectrum.Mode LCS_compressed.
+ *
+ * Compression is Re-Pair done in rounds: every round replaces all pairs of adjacent
+ * symbols that occur at least twice, left to right. Repeated loop bodies and call
+ * sequences collapse into a few rules; runs "a a a a" become nested (a a) rules.
+ *
+ * The LCS is computed against an uncompressed trace with the bit-parallel row update
+ * (Allison-Dix / Hyyro), applied rule by rule. The row that leaves a rule only depends
+ * on the rule and the row that enters it, so rule results are memoized on that row,
+ * and a rule repeated back to back is skipped once it no longer changes the row. The
+ * memo of one LCS computation holds at most MEMO_WORDS words of rows.
+ */
+public class SLP {
+	static final Map<Long, Integer> symbols = new HashMap<Long, Integer>();
+	static final int MEMO_WORDS = 1 << 20;
+
+	int[] left = new int[16], right = new int[16], length = new int[16];
+	int rules = 0;
+	int[] top;
+
+	/* symbols are shared by every spectrum so that compressed traces stay comparable */
+	public static int symbol(LineNumber l) {
+		long key = ((long) l.line << 32) | (l.addedline & 0xffffffffL);
+		synchronized (symbols) {
+			Integer s = symbols.get(key);
+			if (s == null) {
+				s = symbols.size();
+				symbols.put(key, s);
+			}
+			return s;
+		}
+	}
+
+	/* the two traces over dense symbols 0, 1, ..., which any int trace can be mapped to */
+	public static int[][] dense(List<Integer> a, List<Integer> b) {
+		Map<Integer, Integer> table = new HashMap<Integer, Integer>();
+		int[][] seq = { new int[a.size()], new int[b.size()] };
+		int k = 0;
+		for (List<Integer> l : Arrays.asList(a, b)) {
+			for (int i = 0; i < l.size(); i++) {
+				Integer s = table.get(l.get(i));
+				if (s == null) {
+					s = table.size();
+					table.put(l.get(i), s);
+				}
+				seq[k][i] = s;
+			}
+			k++;
+		}
+		return seq;
+	}
+
+	/* LCS of two traces, the longer one compressed and the shorter one the DP row */
+	public static int lcs(List<Integer> a, List<Integer> b) {
+		int[][] seq = dense(a, b);
+		if (seq[0].length >= seq[1].length)
+			return compress(seq[0]).lcs(seq[1]);
+		return compress(seq[1]).lcs(seq[0]);
+	}
+
+	public static int[] symbols(List<LineNumber> lines) {
+		int[] seq = new int[lines.size()];
+		for (int i = 0; i < seq.length; i++)
+			seq[i] = symbol(lines.get(i));
+		return seq;
+	}
+
+	/* rules are numbered below -1 so they never collide with terminal symbols */
+	static boolean isRule(int sym) {
+		return sym < 0;
+	}
+
+	static int rule(int sym) {
+		return -sym - 1;
+	}
+
+	int length(int sym) {
+		return isRule(sym) ? length[rule(sym)] : 1;
+	}
+
+	int newRule(int l, int r) {
+		if (rules == left.length) {
+			left = Arrays.copyOf(left, rules * 2);
+			right = Arrays.copyOf(right, rules * 2);
+			length = Arrays.copyOf(length, rules * 2);
+		}
+		left[rules] = l;
+		right[rules] = r;
+		length[rules] = length(l) + length(r);
+		return -(++rules);
+	}
+
+	public int size() {
+		return top.length + 2 * rules;
+	}
+
+	public static SLP compress(int[] seq) {
+		SLP g = new SLP();
+		int[] cur = seq;
+		while (cur.length > 1) {
+			Map<Long, Integer> count = new HashMap<Long, Integer>();
+			for (int i = 0; i + 1 < cur.length; i++) {
+				long key = pair(cur[i], cur[i + 1]);
+				Integer c = count.get(key);
+				count.put(key, c == null ? 1 : c + 1);
+			}
+			Map<Long, Integer> pairs = new HashMap<Long, Integer>();
+			int[] next = new int[cur.length];
+			int n = 0;
+			for (int i = 0; i < cur.length;) {
+				if (i + 1 < cur.length && count.get(pair(cur[i], cur[i + 1])) >= 2) {
+					long key = pair(cur[i], cur[i + 1]);
+					Integer sym = pairs.get(key);
+					if (sym == null) {
+						sym = g.newRule(cur[i], cur[i + 1]);
+						pairs.put(key, sym);
+					}
+					next[n++] = sym;
+					i += 2;
+				} else
+					next[n++] = cur[i++];
+			}
+			boolean gain = n < cur.length - cur.length / 100;
+			cur = Arrays.copyOf(next, n);
+			if (!gain)
+				break;
+		}
+		g.top = cur;
+		return g;
+	}
+
+	static long pair(int a, int b) {
+		return ((long) a << 32) | (b & 0xffffffffL);
+	}
+
+	static class MemoKey {
+		int sym;
+		long[] row;
+		int hash;
+
+		MemoKey(int _sym, long[] _row) {
+			sym = _sym;
+			row = _row;
+			hash = 31 * Arrays.hashCode(row) + sym;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			MemoKey k = (MemoKey) o;
+			return sym == k.sym && Arrays.equals(row, k.row);
+		}
+	}
+
+	/* one LCS computation of this grammar against a raw trace */
+	class Run {
+		Map<Integer, long[]> match = new HashMap<Integer, long[]>();
+		Map<MemoKey, long[]> memo = new HashMap<MemoKey, long[]>();
+		int words, memoWords = 0;
+
+		Run(int[] b) {
+			words = (b.length + 63) / 64;
+			for (int j = 0; j < b.length; j++) {
+				long[] m = match.get(b[j]);
+				if (m == null) {
+					m = new long[words];
+					match.put(b[j], m);
+				}
+				m[j / 64] |= 1L << (j % 64);
+			}
+		}
+
+		long[] step(long[] v, long[] m) {
+			long[] out = new long[words];
+			long carry = 0;
+			for (int w = 0; w < words; w++) {
+				long u = v[w] & m[w];
+				long t = v[w] + u;
+				long c1 = Long.compareUnsigned(t, v[w]) < 0 ? 1 : 0;
+				long s = t + carry;
+				long c2 = (carry == 1 && s == 0) ? 1 : 0;
+				carry = c1 | c2;
+				out[w] = s | (v[w] & ~m[w]);
+			}
+			return out;
+		}
+
+		long[] apply(int sym, long[] v) {
+			if (!isRule(sym)) {
+				long[] m = match.get(sym);
+				return m == null ? v : step(v, m);
+			}
+			int r = rule(sym);
+			boolean memoize = length[r] >= 8;
+			MemoKey key = null;
+			if (memoize) {
+				key = new MemoKey(sym, v);
+				long[] hit = memo.get(key);
+				if (hit != null)
+					return hit;
+			}
+			long[] v1 = apply(left[r], v);
+			long[] v2;
+			if (left[r] == right[r] && Arrays.equals(v1, v))
+				v2 = v1;
+			else
+				v2 = apply(right[r], v1);
+			if (memoize && memoWords + 2 * words <= MEMO_WORDS) {
+				memo.put(key, v2);
+				memoWords += 2 * words;
+			}
+			return v2;
+		}
+	}
+
+	/* length of the longest common subsequence of the expansion of this grammar and b */
+	public int lcs(int[] b) {
+		if (b.length == 0 || top.length == 0)
+			return 0;
+		Run run = new Run(b);
+		long[] v = new long[run.words];
+		Arrays.fill(v, -1L);
+		for (int i = 0; i < top.length; i++) {
+			long[] v1 = run.apply(top[i], v);
+			if (v1 == v || Arrays.equals(v1, v)) {
+				// a fixed point stays fixed for the rest of a run of the same symbol
+				while (i + 1 < top.length && top[i + 1] == top[i])
+					i++;
+			}
+			v = v1;
+		}
+		int ones = 0;
+		for (int w = 0; w < run.words; w++) {
+			long x = v[w];
+			if (w == run.words - 1 && b.length % 64 != 0)
+				x &= (1L << (b.length % 64)) - 1;
+			ones += Long.bitCount(x);
+		}
+		return b.length - ones;
+	}
+}
@@ -405,7 +405,10 @@ public class parser {
 		Stack<Context> contexts;
 		Map<Integer, Integer> addedlines;
 		List<Integer> deletedlines;// TODO
-		Map<LineNumber,LineNumber>Lines=null;
+		TestCase.PatchLineMap Lines=null;
+		SLP grammar=null;
+		int[] symbols=null;
+		List<LineVariables> compressedValues=null;
 		
 		public Spectrum clone() {
 			Spectrum o = null;
@@ -425,7 +428,7 @@ public class parser {
 			}
 			else{
 				//System.out.println(curLine);
-				curLine=Lines.get(curLine);
+				curLine=Lines.next(curLine);
 				//System.out.println(curLine);
 			}
 		}
@@ -473,13 +476,7 @@ public class parser {
 		
 		public Spectrum(String PatchFile) {
 			this();
-			Map<Integer, LineNumber>m=TestCase.patchparser.process(10000, PatchFile);//TODO real Number of lines
-			Lines=new TreeMap<LineNumber,LineNumber>();
-			int len=m.size();
-			Lines.put(new LineNumber(0,0), m.get(1));
-			for(int i=1;i<len;i++){
-				Lines.put(m.get(i), m.get(i+1));
-			}
+			Lines=TestCase.PatchLineMap.get(PatchFile);
 		}
 
 		Spectrum(Map<Integer, Integer> _addedlines, List<Integer> _deletedlines) {
@@ -614,7 +611,7 @@ public class parser {
 
 		public static class Mode {
 			public enum ModeEnum {
-				Default, LCS, LCS_Bestfit, LCS_simple;
+				Default, LCS, LCS_Bestfit, LCS_simple, LCS_compressed;
 			}
 
 			ModeEnum mode;
@@ -630,6 +627,26 @@ public class parser {
 			}
 		}
 
+		/* line sequence as shared symbols, recomputed when values changed */
+		synchronized int[] symbols() {
+			if (symbols == null || compressedValues != values || symbols.length != values.size()) {
+				List<LineNumber> lines = new ArrayList<LineNumber>();
+				for (LineVariables l : values)
+					lines.add(l.line);
+				symbols = SLP.symbols(lines);
+				compressedValues = values;
+				grammar = null;
+			}
+			return symbols;
+		}
+
+		synchronized SLP grammar() {
+			int[] seq = symbols();
+			if (grammar == null)
+				grammar = SLP.compress(seq);
+			return grammar;
+		}
+
 		public double diff(Spectrum spec2, Mode diffmode) {
 			double ret = 0;
 			Iterator<LineVariables> it1 = values.iterator(), it2 = spec2.values.iterator();
@@ -666,6 +683,13 @@ public class parser {
 				}
 				ret += (min - f[values.size()%2][spec2.values.size()]) * diffmode.linediffw;
 				break;
+			case LCS_compressed:
+				// the longer trace is compressed, the shorter one is the DP row
+				if (values.size() >= spec2.values.size())
+					ret += (min - grammar().lcs(spec2.symbols())) * diffmode.linediffw;
+				else
+					ret += (min - spec2.grammar().lcs(symbols())) * diffmode.linediffw;
+				break;
 			case LCS:
 				//System.out.println(values.size()+" "+spec2.values.size());
 				f = new int[values.size()+1][spec2.values.size()+1];
@@ -0,0 +1,322 @@
+package TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Classifies a patch while its traces are still being collected.
+ *
+ * tracer.py lists the tests it is going to run in <tracedir>/expected, appends every
+ * finished test to <tracedir>/finished and creates <tracedir>/done at the end. Each
+ * finished test is parsed once and the verdict of TraceParser.run is recomputed, so
+ * <patch_no>/result always holds the best verdict so far. When the tests still to come
+ * cannot flip the verdict any more, <tracedir>/stop is created and tracing ends early.
+ */
+public class AnytimeClassifier {
+	static final int PASS = 0, FAIL = 1, GEN = 2;
+	static final double DELTA = 0.05;
+
+	static class TestTrace {
+		String name;
+		int kind;
+		ArrayList<Integer> buggy_e;
+		double dis_2;
+		boolean removed = false;
+	}
+
+	String tracedir, patch_no;
+	PatchLineMap LNMap;
+	List<String> failing_tests;
+	List<TestTrace> seen = new ArrayList<TestTrace>();
+	List<double[]> dis = new ArrayList<double[]>();
+	List<String> expected = null;
+	int expected_fail = 0;
+	double dis_pass, dis_fail, num_pass, num_fail, w_pass, w_fail;
+
+	AnytimeClassifier(String project, String bugid, String _patch_no, String _tracedir, String patchdir) {
+		patch_no = _patch_no;
+		tracedir = new File(_tracedir, project + bugid + "b_" + patch_no).toString();
+		LNMap = PatchLineMap.get(new File(patchdir, patch_no).toString());
+		failing_tests = TraceParser.get_failing_tests(project, bugid);
+	}
+
+	int kind(String name) {
+		if (name.startsWith("Randoop"))
+			return GEN;
+		if (TraceParser.in_list(failing_tests, name))
+			return FAIL;
+		return PASS;
+	}
+
+	static List<String> readLines(File f) {
+		List<String> l = new ArrayList<String>();
+		if (!f.exists())
+			return l;
+		try {
+			for (String line : Files.readAllLines(f.toPath())) {
+				line = line.trim();
+				if (line.length() != 0)
+					l.add(line);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return l;
+	}
+
+	void readExpected() {
+		File f = new File(tracedir, "expected");
+		if (expected != null || !f.exists())
+			return;
+		expected = readLines(f);
+		for (String s : expected)
+			if (kind(s) == FAIL)
+				expected_fail++;
+	}
+
+	void add(String name) {
+		TestTrace t = new TestTrace();
+		t.name = name;
+		t.kind = kind(name);
+		int i = seen.size();
+		seen.add(t);
+		dis.add(new double[0]);
+		File buggy_e = new File(new File(tracedir, "buggy_e"), name);
+		File patched_e = new File(new File(tracedir, "patched_e"), name);
+		if (!buggy_e.exists() || !patched_e.exists()) {
+			t.removed = true;
+			return;
+		}
+		ArrayList<Integer> spec1, spec2;
+		try {
+			t.buggy_e = TraceParser.read(buggy_e);
+			spec1 = TraceParser.read(new File(new File(tracedir, "buggy"), name));
+			spec2 = TraceParser.read(new File(new File(tracedir, "patched"), name), LNMap);
+		} catch (Exception e) {
+			e.printStackTrace();
+			t.removed = true;
+			return;
+		}
+		if ((double) spec1.size() * (double) spec2.size() > 5e9 && !(t.kind == FAIL && expected_fail == 1)) {
+			t.removed = true;
+			return;
+		}
+		double Length = Math.max(spec1.size(), spec2.size());
+		t.dis_2 = 1 - TraceParser.diff(spec1, spec2) / Length;
+
+		// only generated tests are compared with the other tests
+		double[] row = new double[i];
+		for (int j = 0; j < i; j++) {
+			TestTrace o = seen.get(j);
+			if (o.removed || (t.kind == GEN) == (o.kind == GEN))
+				continue;
+			double L = Math.max(t.buggy_e.size(), o.buggy_e.size());
+			row[j] = L == 0 ? 1 : 1 - TraceParser.diff(t.buggy_e, o.buggy_e) / L;
+		}
+		dis.set(i, row);
+	}
+
+	double dis(int i, int j) {
+		return i > j ? dis.get(i)[j] : dis.get(j)[i];
+	}
+
+	/* same weighting as TraceParser.run over the tests seen so far */
+	void evaluate() {
+		List<Integer> pass = new ArrayList<Integer>(), fail = new ArrayList<Integer>(), gen = new ArrayList<Integer>();
+		for (int i = 0; i < seen.size(); i++) {
+			TestTrace t = seen.get(i);
+			if (t.removed)
+				continue;
+			(t.kind == PASS ? pass : t.kind == FAIL ? fail : gen).add(i);
+		}
+		w_pass = 0;
+		w_fail = 0;
+		dis_pass = 0;
+		dis_fail = 0;
+		if (pass.size() != 0 && fail.size() != 0) {
+			for (int i : pass) {
+				dis_pass += seen.get(i).dis_2;
+				w_pass += 1;
+			}
+			for (int i : fail) {
+				dis_fail += seen.get(i).dis_2 / fail.size();
+				w_fail += 1;
+			}
+			for (int i : gen) {
+				double dis_p = 1, dis_f = 1;
+				for (int j : pass) {
+					if (seen.get(j).dis_2 < dis_p)
+						dis_p = dis(i, j);
+				}
+				for (int j : fail) {
+					if (seen.get(j).dis_2 < dis_f)
+						dis_f = dis(i, j);
+				}
+				if (dis_p < dis_f) {
+					dis_pass += seen.get(i).dis_2 * (1 - dis_p);
+					w_pass += 1 - dis_p;
+				} else {
+					dis_fail += seen.get(i).dis_2 * (1 - dis_f);
+					w_fail += 1 - dis_f;
+				}
+			}
+		}
+		num_pass = dis_pass;
+		num_fail = dis_fail;
+		dis_pass = dis_pass / w_pass;
+		dis_fail = dis_fail / w_fail;
+	}
+
+	static String verdict(double dis_pass, double dis_fail) {
+		return dis_pass > dis_fail ? "Incorrect" : "Correct";
+	}
+
+	static double hoeffding(int n) {
+		return n == 0 ? 1 : Math.sqrt(Math.log(2 / DELTA) / (2 * n));
+	}
+
+	/*
+	 * Worst-case check over the tests that have not finished yet: each of them may be
+	 * dropped or end up with any distance in [0,1]. Generated tests are free as well
+	 * until every pass and fail test is in, since their side and weight depend on those.
+	 */
+	boolean settled() {
+		if (expected == null)
+			return false;
+		List<String> names = new ArrayList<String>();
+		for (TestTrace t : seen)
+			names.add(t.name);
+		int k_pass = 0, k_fail = 0, k_gen = 0;
+		for (String s : expected) {
+			if (names.contains(s))
+				continue;
+			int k = kind(s);
+			if (k == PASS)
+				k_pass++;
+			else if (k == FAIL)
+				k_fail++;
+			else
+				k_gen++;
+		}
+		evaluate();
+		boolean canIncorrect = false, canCorrect = false;
+		if (k_pass + k_fail == 0) {
+			if (w_pass == 0 || w_fail == 0)
+				return true;
+			for (int g = 0; g <= k_gen; g += Math.max(1, k_gen)) {
+				if ((num_pass + g) / (w_pass + g) > num_fail / (w_fail + g))
+					canIncorrect = true;
+				if (num_pass / (w_pass + g) <= (num_fail + g) / (w_fail + g))
+					canCorrect = true;
+			}
+			return canIncorrect != canCorrect;
+		}
+		double S_p = 0, n_p = 0, S_f = 0, n_f = 0;
+		int free_gen = k_gen;
+		for (TestTrace t : seen) {
+			if (t.removed)
+				continue;
+			if (t.kind == PASS) {
+				S_p += t.dis_2;
+				n_p++;
+			} else if (t.kind == FAIL) {
+				S_f += t.dis_2;
+				n_f++;
+			} else
+				free_gen++;
+		}
+		for (int u_p = 0; u_p <= k_pass; u_p++) {
+			for (int u_f = 0; u_f <= k_fail; u_f++) {
+				double m_p = n_p + u_p, m_f = n_f + u_f;
+				if (m_p == 0 || m_f == 0) {
+					// distances end up NaN, which reads as Correct
+					canCorrect = true;
+					continue;
+				}
+				for (int g = 0; g <= free_gen; g += Math.max(1, free_gen)) {
+					if ((S_p + u_p + g) / (m_p + g) > (S_f / m_f) / (m_f + g))
+						canIncorrect = true;
+					if (S_p / (m_p + g) <= ((S_f + u_f) / m_f + g) / (m_f + g))
+						canCorrect = true;
+				}
+			}
+		}
+		return canIncorrect != canCorrect;
+	}
+
+	void write(boolean done) {
+		evaluate();
+		int n_p = 0, n_f = 0;
+		for (TestTrace t : seen) {
+			if (t.removed)
+				continue;
+			if (t.kind == PASS)
+				n_p++;
+			else if (t.kind == FAIL)
+				n_f++;
+		}
+		String res = verdict(dis_pass, dis_fail);
+		String progress = String.format("%s %d/%s %.4f %.4f +-%.4f +-%.4f\n", done ? "final" : "provisional",
+				seen.size(), expected == null ? "?" : String.valueOf(expected.size()), dis_pass, dis_fail,
+				hoeffding(n_p), hoeffding(n_f));
+		try {
+			new File(patch_no).mkdirs();
+			File tmp = new File(patch_no, "result.tmp");
+			Files.write(tmp.toPath(), (res + "\n").getBytes());
+			Files.move(tmp.toPath(), new File(patch_no, "result").toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			Files.write(new File(patch_no, "progress").toPath(), progress.getBytes(),
+					java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.print(progress);
+	}
+
+	void run(long idle_limit) throws InterruptedException {
+		File finished = new File(tracedir, "finished");
+		File done = new File(tracedir, "done");
+		long last = System.currentTimeMillis();
+		while (true) {
+			readExpected();
+			boolean isDone = done.exists();
+			List<String> l = readLines(finished);
+			boolean arrived = l.size() > seen.size();
+			for (int i = seen.size(); i < l.size(); i++)
+				add(l.get(i));
+			// idle only counts once tracer.py has started the tests
+			if (arrived || expected == null)
+				last = System.currentTimeMillis();
+			if (isDone) {
+				write(true);
+				return;
+			}
+			if (arrived) {
+				write(false);
+				if (settled()) {
+					try {
+						new File(tracedir, "stop").createNewFile();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					write(true);
+					return;
+				}
+			}
+			if (System.currentTimeMillis() - last > idle_limit)
+				return;
+			Thread.sleep(1000);
+		}
+	}
+
+	public static void main(String args[]) throws InterruptedException {
+		// project bugid patch_no tracedir patchdir path_to_d4j [idle seconds]
+		TraceParser.Path_to_d4j = args[5];
+		long idle = args.length > 6 ? Long.parseLong(args[6]) : 600;
+		new AnytimeClassifier(args[0], args[1], args[2], args[3], args[4]).run(idle * 1000);
+	}
+}
@@ -0,0 +1,545 @@
+package TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Minimal class file rewriter used by CoverageAgent and LineTracer. It only inserts short
+ * instruction sequences (probes) before selected instructions and appends the constants they
+ * need, so no bytecode library has to be on the classpath of the tests.
+ *
+ * A probe runs whenever control reaches its instruction, also through a branch or an
+ * exception handler, and must leave the operand stack as it found it. The code is laid out
+ * again: branch and switch offsets, the exception table, LineNumberTable,
+ * LocalVariable(Type)Table and StackMapTable are moved to the new offsets. Other attributes
+ * of the Code attribute only hold type annotation data and are dropped. A method whose
+ * branches would no longer fit in 16 bit offsets is left unchanged.
+ */
+class ClassFileEditor {
+	static class Method {
+		int access, start, end, code = -1;
+		String name, desc;
+		int firstLine = Integer.MAX_VALUE, lastLine = -1;
+		boolean junitTest = false;
+		int[] lines = new int[0];
+		TreeMap<Integer, byte[]> probes = new TreeMap<Integer, byte[]>();
+		int stack;
+
+		boolean isInit() {
+			return name.startsWith("<");
+		}
+	}
+
+	final byte[] b;
+	int[] cp;
+	int cpCount, cpEnd, access;
+	String name, sourceFile;
+	List<Method> methods = new ArrayList<Method>();
+	ByteArrayOutputStream constants = new ByteArrayOutputStream();
+	Map<String, Integer> added = new HashMap<String, Integer>();
+	int nextConstant;
+
+	ClassFileEditor(byte[] _b) throws IOException {
+		b = _b;
+		if (u4(0) != 0xCAFEBABE)
+			throw new IOException("not a class file");
+		cpCount = u2(8);
+		nextConstant = cpCount;
+		cp = new int[cpCount];
+		int p = 10;
+		for (int i = 1; i < cpCount; i++) {
+			cp[i] = p;
+			switch (u1(p)) {
+			case 1:
+				p += 3 + u2(p + 1);
+				break;
+			case 5:
+			case 6:
+				p += 9;
+				i++;
+				break;
+			case 3:
+			case 4:
+			case 9:
+			case 10:
+			case 11:
+			case 12:
+			case 17:
+			case 18:
+				p += 5;
+				break;
+			case 7:
+			case 8:
+			case 16:
+			case 19:
+			case 20:
+				p += 3;
+				break;
+			case 15:
+				p += 4;
+				break;
+			default:
+				throw new IOException("unknown constant tag " + u1(p));
+			}
+		}
+		cpEnd = p;
+		access = u2(p);
+		name = utf8(u2(cp[u2(p + 2)] + 1));
+		p += 8 + 2 * u2(p + 6);
+		// fields
+		int n = u2(p);
+		p += 2;
+		for (int i = 0; i < n; i++)
+			p = skipAttributes(p + 6);
+		n = u2(p);
+		p += 2;
+		for (int i = 0; i < n; i++) {
+			Method m = new Method();
+			m.start = p;
+			m.access = u2(p);
+			m.name = utf8(u2(p + 2));
+			m.desc = utf8(u2(p + 4));
+			int attrs = u2(p + 6);
+			p += 8;
+			for (int j = 0; j < attrs; j++) {
+				String a = utf8(u2(p));
+				if (a.equals("Code"))
+					readCode(m, p);
+				else if (a.equals("RuntimeVisibleAnnotations"))
+					m.junitTest = hasAnnotation(p + 6, "Lorg/junit/Test;");
+				p += 6 + u4(p + 2);
+			}
+			m.end = p;
+			methods.add(m);
+		}
+		n = u2(p);
+		p += 2;
+		for (int i = 0; i < n; i++) {
+			if (utf8(u2(p)).equals("SourceFile"))
+				sourceFile = utf8(u2(p + 6));
+			p += 6 + u4(p + 2);
+		}
+	}
+
+	int u1(int p) {
+		return b[p] & 0xff;
+	}
+
+	int u2(int p) {
+		return (u1(p) << 8) | u1(p + 1);
+	}
+
+	int u4(int p) {
+		return (u2(p) << 16) | u2(p + 2);
+	}
+
+	String utf8(int index) throws IOException {
+		int p = cp[index];
+		return new DataInputStream(new ByteArrayInputStream(b, p + 1, 2 + u2(p + 1))).readUTF();
+	}
+
+	int skipAttributes(int p) {
+		int n = u2(p);
+		p += 2;
+		for (int i = 0; i < n; i++)
+			p += 6 + u4(p + 2);
+		return p;
+	}
+
+	void readCode(Method m, int p) throws IOException {
+		m.code = p;
+		int q = p + 14 + u4(p + 10);
+		q += 2 + 8 * u2(q);
+		int n = u2(q);
+		q += 2;
+		for (int i = 0; i < n; i++) {
+			if (utf8(u2(q)).equals("LineNumberTable")) {
+				int k = u2(q + 6);
+				int old = m.lines.length;
+				m.lines = java.util.Arrays.copyOf(m.lines, old + 2 * k);
+				for (int j = 0; j < k; j++) {
+					int line = u2(q + 10 + 4 * j);
+					m.lines[old + 2 * j] = u2(q + 8 + 4 * j);
+					m.lines[old + 2 * j + 1] = line;
+					m.firstLine = Math.min(m.firstLine, line);
+					m.lastLine = Math.max(m.lastLine, line);
+				}
+			}
+			q += 6 + u4(q + 2);
+		}
+	}
+
+	boolean hasAnnotation(int p, String type) throws IOException {
+		int n = u2(p);
+		p += 2;
+		for (int i = 0; i < n; i++) {
+			if (utf8(u2(p)).equals(type))
+				return true;
+			p = skipAnnotation(p);
+		}
+		return false;
+	}
+
+	int skipAnnotation(int p) {
+		int pairs = u2(p + 2);
+		p += 4;
+		for (int i = 0; i < pairs; i++)
+			p = skipElementValue(p + 2);
+		return p;
+	}
+
+	int skipElementValue(int p) {
+		switch (u1(p)) {
+		case 'e':
+			return p + 5;
+		case '@':
+			return skipAnnotation(p + 1);
+		case '[': {
+			int n = u2(p + 1);
+			p += 3;
+			for (int i = 0; i < n; i++)
+				p = skipElementValue(p);
+			return p;
+		}
+		default:
+			return p + 3;
+		}
+	}
+
+	/* index of a Methodref constant, appended to the constant pool when needed */
+	int methodref(String owner, String method, String desc) throws IOException {
+		String key = owner + "." + method + desc;
+		Integer index = added.get(key);
+		if (index != null)
+			return index;
+		DataOutputStream o = new DataOutputStream(constants);
+		int ownerName = nextConstant++;
+		o.writeByte(1);
+		o.writeUTF(owner);
+		int ownerClass = nextConstant++;
+		o.writeByte(7);
+		o.writeShort(ownerName);
+		int methodName = nextConstant++;
+		o.writeByte(1);
+		o.writeUTF(method);
+		int methodDesc = nextConstant++;
+		o.writeByte(1);
+		o.writeUTF(desc);
+		int nameAndType = nextConstant++;
+		o.writeByte(12);
+		o.writeShort(methodName);
+		o.writeShort(methodDesc);
+		index = nextConstant++;
+		o.writeByte(10);
+		o.writeShort(ownerClass);
+		o.writeShort(nameAndType);
+		added.put(key, index);
+		return index;
+	}
+
+	/* probe run at method entry, needing stack more operand slots */
+	boolean insert(Method m, byte[] code, int stack) {
+		return m.probes.containsKey(0) ? false : insert(m, 0, code, stack);
+	}
+
+	/* offset must start an instruction, as the start_pc of LineNumberTable entries do */
+	boolean insert(Method m, int offset, byte[] code, int stack) {
+		if (m.code < 0)
+			return false;
+		m.probes.put(offset, code);
+		m.stack = Math.max(m.stack, stack);
+		return true;
+	}
+
+	byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(b.length + constants.size() + 64);
+		DataOutputStream o = new DataOutputStream(out);
+		o.write(b, 0, 8);
+		o.writeShort(nextConstant);
+		o.write(b, 10, cpEnd - 10);
+		constants.writeTo(o);
+		int p = cpEnd;
+		for (Method m : methods) {
+			if (m.probes.isEmpty())
+				continue;
+			byte[] code = relocate(m);
+			if (code == null)
+				continue;
+			o.write(b, p, m.start - p);
+			writeMethod(m, code, o);
+			p = m.end;
+		}
+		o.write(b, p, b.length - p);
+		o.flush();
+		return out.toByteArray();
+	}
+
+	void writeMethod(Method m, byte[] code, DataOutputStream o) throws IOException {
+		o.write(b, m.start, 8);
+		int attrs = u2(m.start + 6);
+		int p = m.start + 8;
+		for (int i = 0; i < attrs; i++) {
+			int len = 6 + u4(p + 2);
+			if (p == m.code) {
+				o.writeShort(u2(p));
+				o.writeInt(code.length);
+				o.write(code);
+			} else
+				o.write(b, p, len);
+			p += len;
+		}
+	}
+
+	/* length of the instruction at p of a method whose code starts at base, 0 if unknown */
+	static final byte[] LENGTH = new byte[256];
+	static {
+		java.util.Arrays.fill(LENGTH, 0, 0xaa, (byte) 1);
+		java.util.Arrays.fill(LENGTH, 0xac, 0xc4, (byte) 1);
+		for (int op : new int[] { 0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a, 0xa9, 0xbc })
+			LENGTH[op] = 2;
+		for (int op = 0x99; op <= 0xa8; op++)
+			LENGTH[op] = 3;
+		for (int op = 0xb2; op <= 0xb8; op++)
+			LENGTH[op] = 3;
+		for (int op : new int[] { 0x11, 0x13, 0x14, 0x84, 0xbb, 0xbd, 0xc0, 0xc1, 0xc6, 0xc7 })
+			LENGTH[op] = 3;
+		LENGTH[0xc5] = 4;
+		for (int op : new int[] { 0xb9, 0xba, 0xc8, 0xc9 })
+			LENGTH[op] = 5;
+	}
+
+	int length(int base, int p) throws IOException {
+		int op = u1(base + p);
+		if (op == 0xc4)
+			return u1(base + p + 1) == 0x84 ? 6 : 4;
+		if (op == 0xaa || op == 0xab) {
+			int q = base + p + 1 + pad(p);
+			return op == 0xaa ? 1 + pad(p) + 12 + 4 * (u4(q + 8) - u4(q + 4) + 1) : 1 + pad(p) + 8 + 8 * u4(q + 4);
+		}
+		if (LENGTH[op] == 0)
+			throw new IOException("unknown opcode " + op);
+		return LENGTH[op];
+	}
+
+	static int pad(int p) {
+		return (4 - (p + 1) % 4) % 4;
+	}
+
+	static boolean isBranch(int op) {
+		return (op >= 0x99 && op <= 0xa8) || op == 0xc6 || op == 0xc7;
+	}
+
+	/* new Code attribute body (without name and length), null if the method cannot be changed */
+	byte[] relocate(Method m) throws IOException {
+		int p0 = m.code;
+		int codeLength = u4(p0 + 10);
+		int base = p0 + 14;
+		// target[x]: where control reaching old offset x goes, its probe if it has one
+		// insn[x]: new offset of the instruction itself
+		int[] target = new int[codeLength + 1], insn = new int[codeLength + 1];
+		List<Integer> starts = new ArrayList<Integer>();
+		int pos = 0;
+		for (int p = 0; p < codeLength; p += length(base, p)) {
+			starts.add(p);
+			target[p] = pos;
+			byte[] probe = m.probes.get(p);
+			if (probe != null)
+				pos += probe.length;
+			insn[p] = pos;
+			int op = u1(base + p);
+			pos += op == 0xaa || op == 0xab ? length(base, p) - pad(p) + pad(pos) : length(base, p);
+		}
+		target[codeLength] = insn[codeLength] = pos;
+		if (pos > 65535)
+			return null;
+
+		ByteArrayOutputStream code = new ByteArrayOutputStream(pos);
+		DataOutputStream c = new DataOutputStream(code);
+		for (int p : starts) {
+			byte[] probe = m.probes.get(p);
+			if (probe != null)
+				c.write(probe);
+			int op = u1(base + p), np = insn[p];
+			if (isBranch(op)) {
+				int off = target[p + (short) u2(base + p + 1)] - np;
+				if (off != (short) off)
+					return null;
+				c.writeByte(op);
+				c.writeShort(off);
+			} else if (op == 0xc8 || op == 0xc9) {
+				c.writeByte(op);
+				c.writeInt(target[p + u4(base + p + 1)] - np);
+			} else if (op == 0xaa || op == 0xab) {
+				c.writeByte(op);
+				for (int i = 0; i < pad(np); i++)
+					c.writeByte(0);
+				int q = base + p + 1 + pad(p);
+				c.writeInt(target[p + u4(q)] - np);
+				if (op == 0xaa) {
+					int low = u4(q + 4), high = u4(q + 8);
+					c.writeInt(low);
+					c.writeInt(high);
+					for (int i = 0; i < high - low + 1; i++)
+						c.writeInt(target[p + u4(q + 12 + 4 * i)] - np);
+				} else {
+					int n = u4(q + 4);
+					c.writeInt(n);
+					for (int i = 0; i < n; i++) {
+						c.writeInt(u4(q + 8 + 8 * i));
+						c.writeInt(target[p + u4(q + 12 + 8 * i)] - np);
+					}
+				}
+			} else
+				c.write(b, base + p, length(base, p));
+		}
+		c.flush();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream o = new DataOutputStream(out);
+		o.writeShort(u2(p0 + 6) + m.stack);
+		o.writeShort(u2(p0 + 8));
+		o.writeInt(code.size());
+		code.writeTo(o);
+		int q = base + codeLength;
+		int n = u2(q);
+		o.writeShort(n);
+		for (int i = 0; i < n; i++) {
+			int e = q + 2 + 8 * i;
+			o.writeShort(target[u2(e)]);
+			o.writeShort(target[u2(e + 2)]);
+			o.writeShort(target[u2(e + 4)]);
+			o.writeShort(u2(e + 6));
+		}
+		q += 2 + 8 * n;
+		n = u2(q);
+		q += 2;
+		List<byte[]> kept = new ArrayList<byte[]>();
+		for (int i = 0; i < n; i++) {
+			String a = utf8(u2(q));
+			int len = u4(q + 2);
+			ByteArrayOutputStream ab = new ByteArrayOutputStream();
+			DataOutputStream ao = new DataOutputStream(ab);
+			if (a.equals("LineNumberTable")) {
+				int k = u2(q + 6);
+				ao.writeShort(k);
+				for (int j = 0; j < k; j++) {
+					ao.writeShort(target[u2(q + 8 + 4 * j)]);
+					ao.writeShort(u2(q + 10 + 4 * j));
+				}
+			} else if (a.equals("LocalVariableTable") || a.equals("LocalVariableTypeTable")) {
+				int k = u2(q + 6);
+				ao.writeShort(k);
+				for (int j = 0; j < k; j++) {
+					int e = q + 8 + 10 * j;
+					int start = target[u2(e)];
+					ao.writeShort(start);
+					ao.writeShort(target[u2(e) + u2(e + 2)] - start);
+					ao.write(b, e + 4, 6);
+				}
+			} else if (a.equals("StackMapTable"))
+				relocateFrames(q + 6, target, insn, ao);
+			else {
+				q += 6 + len;
+				continue;
+			}
+			ao.flush();
+			ByteArrayOutputStream attr = new ByteArrayOutputStream();
+			DataOutputStream h = new DataOutputStream(attr);
+			h.writeShort(u2(q));
+			h.writeInt(ab.size());
+			ab.writeTo(h);
+			h.flush();
+			kept.add(attr.toByteArray());
+			q += 6 + len;
+		}
+		o.writeShort(kept.size());
+		for (byte[] a : kept)
+			o.write(a);
+		o.flush();
+		return out.toByteArray();
+	}
+
+	/* frame offsets are deltas from the previous frame; Uninitialized(offset) names a new instruction */
+	void relocateFrames(int p, int[] target, int[] insn, DataOutputStream o) throws IOException {
+		int n = u2(p);
+		o.writeShort(n);
+		p += 2;
+		int old = -1, now = -1;
+		for (int i = 0; i < n; i++) {
+			int t = u1(p++);
+			int delta;
+			if (t < 64)
+				delta = t;
+			else if (t < 128)
+				delta = t - 64;
+			else if (t >= 247) {
+				delta = u2(p);
+				p += 2;
+			} else
+				throw new IOException("unknown frame type " + t);
+			old += delta + 1;
+			int next = target[old];
+			delta = next - now - 1;
+			now = next;
+			if (t < 64) {
+				writeDelta(o, delta, 0, 251);
+			} else if (t < 128) {
+				writeDelta(o, delta, 64, 247);
+				p = copyType(p, insn, o);
+			} else if (t == 247) {
+				o.writeByte(t);
+				o.writeShort(delta);
+				p = copyType(p, insn, o);
+			} else if (t <= 251) {
+				o.writeByte(t);
+				o.writeShort(delta);
+			} else if (t <= 254) {
+				o.writeByte(t);
+				o.writeShort(delta);
+				for (int k = 0; k < t - 251; k++)
+					p = copyType(p, insn, o);
+			} else {
+				o.writeByte(t);
+				o.writeShort(delta);
+				for (int part = 0; part < 2; part++) {
+					int k = u2(p);
+					o.writeShort(k);
+					p += 2;
+					for (int j = 0; j < k; j++)
+						p = copyType(p, insn, o);
+				}
+			}
+		}
+	}
+
+	static void writeDelta(DataOutputStream o, int delta, int base, int extended) throws IOException {
+		if (delta < 64)
+			o.writeByte(base + delta);
+		else {
+			o.writeByte(extended);
+			o.writeShort(delta);
+		}
+	}
+
+	int copyType(int p, int[] insn, DataOutputStream o) throws IOException {
+		int tag = u1(p);
+		o.writeByte(tag);
+		if (tag == 7) {
+			o.writeShort(u2(p + 1));
+			return p + 3;
+		}
+		if (tag == 8) {
+			o.writeShort(insn[u2(p + 1)]);
+			return p + 3;
+		}
+		return p + 1;
+	}
+}
@@ -0,0 +1,160 @@
+package TestCase;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Java agent recording which test methods execute the patched methods, in one run of the
+ * unmodified build. It replaces the source edits of MethodInstr and TestCase.Instrumenter.
+ *
+ * usage: -javaagent:coverage-agent.jar=<tracefile>,<class>:<line>[:<line>...],...
+ * <class> is the internal name of a patched top level class (org/jfree/chart/Foo) and the
+ * lines are the ones given to MethodInstr. Methods of the class and its nested classes whose
+ * lines span a target line are marked; when no method of the top level class does, the next
+ * method after the line is, as MethodInstr marks the whole declaration. Constructors and
+ * static initializers are not marked, as in MethodInstr.
+ *
+ * Test methods (public, no arguments, named test* or annotated with @Test, in classes from a
+ * source file with Test in the name) record the running test on entry. The first time a test
+ * reaches a patched method, "---<Class>:<method>" and "---covered" are appended to the trace
+ * file, which is the format read by pylib/coverage.process_cover_trace.
+ */
+public class CoverageAgent implements ClassFileTransformer {
+	static final String SELF = "TestCase/CoverageAgent";
+	static final String[] skipped = { "java/", "javax/", "sun/", "com/sun/", "jdk/", "org/junit/", "junit/",
+			"org/hamcrest/", "org/apache/tools/", "edu/washington/cs/mut/", "TestCase/" };
+
+	static String tracefile;
+	static final List<String> names = Collections.synchronizedList(new ArrayList<String>());
+	static final Set<String> reported = new HashSet<String>();
+	static volatile String current = null, last = null;
+
+	Map<String, List<Integer>> targets = new HashMap<String, List<Integer>>();
+
+	CoverageAgent(String args) {
+		String[] a = args.split(",");
+		tracefile = a[0];
+		for (int i = 1; i < a.length; i++) {
+			String[] t = a[i].split(":");
+			List<Integer> lines = new ArrayList<Integer>();
+			for (int j = 1; j < t.length; j++)
+				lines.add(Integer.valueOf(t[j]));
+			targets.put(t[0], lines);
+		}
+	}
+
+	public static void premain(String args, Instrumentation inst) {
+		inst.addTransformer(new CoverageAgent(args));
+	}
+
+	public static void enter(Object test, int method) {
+		current = test.getClass().getName() + ":" + names.get(method);
+	}
+
+	public static void covered() {
+		String test = current;
+		if (test == null || test == last)
+			return;
+		synchronized (reported) {
+			last = test;
+			if (reported.add(test))
+				write("---" + test + "\n---covered\n");
+		}
+	}
+
+	static void write(String s) {
+		try {
+			RandomAccessFile f = new RandomAccessFile(tracefile, "rw");
+			f.seek(f.length());
+			f.writeBytes(s);
+			f.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public byte[] transform(ClassLoader loader, String className, Class<?> redefined, ProtectionDomain domain,
+			byte[] bytes) {
+		if (loader == null || className == null)
+			return null;
+		for (String s : skipped)
+			if (className.startsWith(s))
+				return null;
+		try {
+			ClassFileEditor c = new ClassFileEditor(bytes);
+			boolean changed = false;
+			int nested = className.indexOf('$');
+			List<Integer> lines = targets.get(nested < 0 ? className : className.substring(0, nested));
+			if (lines != null)
+				changed |= markPatched(c, lines, nested < 0);
+			if (isTestClass(c))
+				changed |= markTests(c);
+			return changed ? c.toByteArray() : null;
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	boolean markPatched(ClassFileEditor c, List<Integer> lines, boolean topLevel) throws IOException {
+		int index = c.methodref(SELF, "covered", "()V");
+		byte[] code = { (byte) 0xb8, (byte) (index >> 8), (byte) index };
+		boolean changed = false;
+		for (int line : lines) {
+			ClassFileEditor.Method next = null;
+			boolean found = false;
+			for (ClassFileEditor.Method m : c.methods) {
+				if (m.firstLine <= line && line <= m.lastLine) {
+					found = true;
+					if (!m.isInit())
+						changed |= c.insert(m, code, 0);
+				} else if (m.firstLine > line && (next == null || m.firstLine < next.firstLine))
+					next = m;
+			}
+			if (!found && topLevel && next != null && !next.isInit())
+				changed |= c.insert(next, code, 0);
+		}
+		return changed;
+	}
+
+	static boolean isTestClass(ClassFileEditor c) {
+		if ((c.access & 0x0200) != 0)
+			return false;
+		String s = c.sourceFile != null ? c.sourceFile : c.name.substring(c.name.lastIndexOf('/') + 1);
+		return s.contains("Test") || s.contains("test");
+	}
+
+	boolean markTests(ClassFileEditor c) throws IOException {
+		boolean changed = false;
+		int index = -1;
+		for (ClassFileEditor.Method m : c.methods) {
+			// public, not static, not abstract
+			if ((m.access & 0x0409) != 0x0001 || !m.desc.equals("()V"))
+				continue;
+			if (!m.name.startsWith("test") && !m.junitTest)
+				continue;
+			int id;
+			synchronized (names) {
+				id = names.size();
+				if (id > Short.MAX_VALUE)
+					return changed;
+				names.add(m.name);
+			}
+			if (index < 0)
+				index = c.methodref(SELF, "enter", "(Ljava/lang/Object;I)V");
+			byte[] code = { 0x2a, 0x11, (byte) (id >> 8), (byte) id, (byte) 0xb8, (byte) (index >> 8), (byte) index };
+			changed |= c.insert(m, code, 2);
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,128 @@
+package TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.runner.Result;
+
+/*
+ * Runs every test against the buggy and the patched checkout in one JVM.
+ *
+ * usage: DualTestRunner <buggy tracefile> <patched tracefile> <timeout seconds> <buggy test classpath>
+ *        <patched test classpath> [serial]
+ * Each side runs in a TestRunner.TestClassLoader of its own, fresh for every test, so their
+ * classes and static state stay apart while JUnit is shared. The two sides must write different
+ * trace files. Commands on stdin:
+ *   run <Class::method> <buggy destination> <patched destination> [<buggy destination_e> <patched destination_e>]
+ *   timeout <seconds>      timeout of each side in the tests that follow, answered with "ok"
+ *   quit
+ * The answer is one line "<buggy result> <patched result>" with results as in TestRunner.
+ * With "serial" the sides run one after the other, each with the full timeout, for projects
+ * whose tests change JVM wide defaults such as TimeZone or Locale. The runner is started in
+ * the buggy checkout.
+ */
+public class DualTestRunner {
+	PrintStream out;
+	File[] tracefiles;
+	String[] classpaths;
+	long timeout;
+	boolean serial;
+	ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	public DualTestRunner(File buggyTrace, File patchedTrace, long _timeout, String buggyClasspath,
+			String patchedClasspath, boolean _serial) {
+		tracefiles = new File[] { buggyTrace, patchedTrace };
+		classpaths = new String[] { buggyClasspath, patchedClasspath };
+		timeout = _timeout;
+		serial = _serial;
+	}
+
+	/* destinations of side i: its trace and, if given, its _e trace */
+	static String[] side(String[] destinations, int i) {
+		if (destinations.length == 4)
+			return new String[] { destinations[i], destinations[2 + i] };
+		return new String[] { destinations[i] };
+	}
+
+	String run(final String test, String[] destinations) throws IOException {
+		String[] res = new String[2];
+		ClassLoader[] loaders = new ClassLoader[2];
+		List<Future<Result>> f = new ArrayList<Future<Result>>(2);
+		long deadline = 0;
+		for (int i = 0; i < 2; i++) {
+			final ClassLoader loader = loaders[i] = TestRunner.prepare(classpaths[i], tracefiles[i]);
+			// in serial mode the deadline of a side starts with it
+			if (i == 0 || serial)
+				deadline = System.currentTimeMillis() + timeout * 1000;
+			f.add(executor.submit(new Callable<Result>() {
+				public Result call() throws Exception {
+					return TestRunner.runTest(loader, test);
+				}
+			}));
+			if (serial)
+				res[i] = result(f.get(i), deadline, loader, tracefiles[i], side(destinations, i));
+		}
+		if (!serial)
+			for (int i = 0; i < 2; i++)
+				res[i] = result(f.get(i), deadline, loaders[i], tracefiles[i], side(destinations, i));
+		return res[0] + " " + res[1];
+	}
+
+	static String result(Future<Result> f, long deadline, ClassLoader loader, File tracefile,
+			String[] destinations) {
+		try {
+			Result r = f.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			TestRunner.finish(loader, tracefile, destinations);
+			return r.wasSuccessful() ? "pass" : "fail";
+		} catch (TimeoutException e) {
+			return "timeout";
+		} catch (Exception e) {
+			e.printStackTrace();
+			TestRunner.close(loader);
+			return "error";
+		}
+	}
+
+	public void serve() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			String[] cmd = line.trim().split(" ");
+			if (cmd[0].equals("quit"))
+				break;
+			String res;
+			if (cmd[0].equals("run") && (cmd.length == 4 || cmd.length == 6))
+				res = run(cmd[1], Arrays.copyOfRange(cmd, 2, cmd.length));
+			else if (cmd[0].equals("timeout") && cmd.length == 2) {
+				timeout = Long.parseLong(cmd[1]);
+				res = "ok";
+			} else
+				res = "error error";
+			out.println(res);
+			out.flush();
+			if (res.contains("timeout"))
+				System.exit(2);
+		}
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws IOException {
+		PrintStream protocol = System.out;
+		System.setOut(System.err);
+		DualTestRunner runner = new DualTestRunner(new File(args[0]), new File(args[1]), Long.parseLong(args[2]),
+				args[3], args[4], args.length > 5 && args[5].equals("serial"));
+		runner.out = protocol;
+		runner.serve();
+	}
+}
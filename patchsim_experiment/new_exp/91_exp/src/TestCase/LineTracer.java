@@ -0,0 +1,192 @@
+package TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * Java agent recording the executed lines of one class, used by pylib/tracer.py instead of
+ * the btrace AllLines script.
+ *
+ * usage: -javaagent:line-tracer.jar=class=<class>[,out=<tracefile>][,range=<first>:<last>]
+ * Every line of <class> reached during the run is appended to <tracefile>; the lines within
+ * range also go to <tracefile>_e, which replaces the extraction of the _e traces in Python.
+ * Both files are binary: MAGIC followed by big endian ints, one per line hit. They are
+ * written from a buffer and flushed when the JVM exits. TraceParser.read accepts them as
+ * well as the text traces.
+ *
+ * TestRunner and DualTestRunner run many tests in one JVM, each in a class loader of its
+ * own: they open() a trace file for the loader before the test and close() it after, and
+ * the copy of <class> that loader defines writes there instead of to <tracefile>. Each sink
+ * has its own buffers and lock, so tests running at once do not wait on each other per line.
+ */
+public class LineTracer implements ClassFileTransformer {
+	public static final int MAGIC = 0x50534c54; // "PSLT"
+	static final String SELF = "TestCase/LineTracer";
+
+	static String target;
+	static int first = 0, last = -1;
+	static boolean active = false;
+
+	/* the trace files of one sink, null while it is closed */
+	static final class Sink {
+		DataOutputStream[] files;
+
+		Sink(DataOutputStream[] _files) {
+			files = _files;
+		}
+
+		synchronized void hit(int line) {
+			if (files == null)
+				return;
+			try {
+				files[0].writeInt(line);
+				if (files[1] != null && line >= first && line <= last)
+					files[1].writeInt(line);
+			} catch (IOException e) {
+				// closed by the shutdown hook, later hits are dropped
+			}
+		}
+
+		synchronized void set(DataOutputStream[] _files) throws IOException {
+			close(files);
+			files = _files;
+		}
+	}
+
+	/*
+	 * sinks by index: 0 is <tracefile>, the others are opened for a class loader. The array is
+	 * replaced, never changed, when a sink is added (under the class lock), so hit() reads it
+	 * without locking; a sink keeps its index.
+	 */
+	static volatile Sink[] sinks = new Sink[0];
+	static Map<ClassLoader, Integer> loaders = new IdentityHashMap<ClassLoader, Integer>();
+
+	static synchronized int add(DataOutputStream[] files) {
+		Sink[] s = Arrays.copyOf(sinks, sinks.length + 1);
+		s[s.length - 1] = new Sink(files);
+		sinks = s;
+		return s.length - 1;
+	}
+
+	LineTracer(String args) throws IOException {
+		String tracefile = null;
+		for (String a : args.split(",")) {
+			String[] kv = a.split("=", 2);
+			if (kv[0].equals("class"))
+				target = kv[1].replace('.', '/');
+			else if (kv[0].equals("out"))
+				tracefile = kv[1];
+			else if (kv[0].equals("range")) {
+				String[] r = kv[1].split(":");
+				first = Integer.parseInt(r[0]);
+				last = Integer.parseInt(r[1]);
+			}
+		}
+		add(tracefile == null ? null : files(tracefile));
+	}
+
+	static DataOutputStream open(String file) throws IOException {
+		DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		o.writeInt(MAGIC);
+		return o;
+	}
+
+	static DataOutputStream[] files(String tracefile) throws IOException {
+		return new DataOutputStream[] { open(tracefile), first <= last ? open(tracefile + "_e") : null };
+	}
+
+	static void close(DataOutputStream[] files) throws IOException {
+		if (files == null)
+			return;
+		for (DataOutputStream o : files)
+			if (o != null)
+				o.close();
+	}
+
+	/* false unless the JVM runs with this agent */
+	public static boolean active() {
+		return active;
+	}
+
+	/* the copy of the traced class defined by loader writes to tracefile from now on */
+	public static synchronized void open(ClassLoader loader, String tracefile) throws IOException {
+		if (!active)
+			return;
+		Integer sink = loaders.get(loader);
+		if (sink == null) {
+			sink = add(null);
+			loaders.put(loader, sink);
+		}
+		sinks[sink].set(files(tracefile));
+	}
+
+	/* flushes and closes the trace files of loader; later hits of its classes are dropped */
+	public static synchronized void close(ClassLoader loader) throws IOException {
+		Integer sink = loaders.remove(loader);
+		if (sink == null)
+			return;
+		sinks[sink].set(null);
+	}
+
+	public static void premain(String args, Instrumentation inst) throws IOException {
+		inst.addTransformer(new LineTracer(args));
+		active = true;
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				synchronized (LineTracer.class) {
+					try {
+						for (Sink sink : sinks)
+							sink.set(null);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+
+	public static void hit(int line, int sink) {
+		sinks[sink].hit(line);
+	}
+
+	public byte[] transform(ClassLoader loader, String className, Class<?> redefined, ProtectionDomain domain,
+			byte[] bytes) {
+		if (!target.equals(className))
+			return null;
+		Integer sink;
+		synchronized (LineTracer.class) {
+			sink = loaders.get(loader);
+		}
+		if (sink == null)
+			sink = 0;
+		if (sink > Short.MAX_VALUE)
+			return null;
+		try {
+			ClassFileEditor c = new ClassFileEditor(bytes);
+			int index = c.methodref(SELF, "hit", "(II)V");
+			boolean changed = false;
+			for (ClassFileEditor.Method m : c.methods) {
+				for (int i = 0; i < m.lines.length; i += 2) {
+					int line = m.lines[i + 1];
+					if (line > Short.MAX_VALUE)
+						continue;
+					byte[] code = { 0x11, (byte) (line >> 8), (byte) line, 0x11, (byte) (sink >> 8), (byte) (int) sink,
+							(byte) 0xb8, (byte) (index >> 8), (byte) index };
+					changed |= c.insert(m, m.lines[i], code, 2);
+				}
+			}
+			return changed ? c.toByteArray() : null;
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -9,16 +9,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.eclipse.jdt.core.dom.AST;
-import org.eclipse.jdt.core.dom.ASTParser;
-import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.BodyDeclaration;
 import org.eclipse.jdt.core.dom.CompilationUnit;
-import org.eclipse.jdt.core.dom.MethodDeclaration;
 import org.eclipse.jdt.core.dom.PackageDeclaration;
-import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
-import org.eclipse.jdt.core.dom.TypeDeclaration;
-import org.apache.commons.lang.StringUtils;
 
 public class MethodName {
 	
@@ -113,9 +106,7 @@ public class MethodName {
 		outputBuffer += "import java.io.IOException; \nimport java.io.RandomAccessFile;\n";
 	}
 	
-	public static void main(String args[]) {
-		boolean verboset = false;
-		
+	public static void main(String args[]) throws Exception {
 		String FilePath = args[0];
 		String TraceFilet = args[1];
 		final List<Integer>TargetLineList=new ArrayList<Integer>();
@@ -123,75 +114,18 @@ public class MethodName {
 		String[] a=args[2].split(",");
 		for(String line :a)
 			TargetLineList.add(Integer.valueOf(line));
-		init();
-
-		
-
-		ASTParser parser = ASTParser.newParser(AST.JLS3);
-
 
-		
-			init();
-
-			source = readFileToString(FilePath);
-
-			parser.setSource(source.toCharArray());
-			parser.setKind(ASTParser.K_COMPILATION_UNIT);
-
-			final CompilationUnit cu = (CompilationUnit) parser.createAST(null);
-			
-			insertimport(cu);
-			final String PackageName=cu.getPackage().getName().toString();
-			if(PackageName!=null)
-				ClassName=PackageName+".";
-			cu.accept(new ASTVisitor() {
-
-				public boolean visit(TypeDeclaration node) {
-					if(ClassNameflag){
-						ClassName+=node.getName().toString();
-						ClassNameflag=false;
-					}
-					
-					return true;
-				}
-
-
-				public boolean visit(MethodDeclaration node) {
-					if (node.isConstructor())//
-						return false;
-					
-					for(Integer TargetLine: TargetLineList)
-					if( cu.getLineNumber(node.getStartPosition())<=TargetLine && cu.getLineNumber(node.getStartPosition()+node.getLength())>=TargetLine){
-						copyto(node.getBody().getStartPosition()+1);
-						
-						
-						methodname=node.getName().toString();
-						StartLine=String.valueOf(cu.getLineNumber(node.getStartPosition()));
-						EndLine=String.valueOf(cu.getLineNumber(node.getStartPosition()+node.getLength()));
-						String signature=node.getReturnType2().toString();
-						List<SingleVariableDeclaration> l=node.parameters();
-						List<String> types=new ArrayList<String>();
-						for(SingleVariableDeclaration o:l){
-							types.add(o.getType().toString());
-						}
-
-						if(types.size()!=0)
-							signature=signature+" ("+StringUtils.join(types.toArray(), ", ")+")";
-						result+=methodname+"\t"+signature+"\t"+StartLine+"\t"+EndLine+"\n";
-						
-					}
-					
-
-					return true;
-				}
-
-				
-
-			});
-			
-			
-writeStringToFile(TraceFilet, result+ClassName);			
+		// declarations come from the persisted SourceIndex instead of parsing FilePath here
+		SourceIndex.Unit unit=SourceIndex.unit(new File(FilePath));
+		ClassName=unit.className();
+		for(SourceIndex.Method m: unit.methods){
+			if (m.constructor)
+				continue;
+			for(Integer TargetLine: TargetLineList)
+				if(m.start<=TargetLine && m.end>=TargetLine)
+					result+=m.name+"\t"+m.signature+"\t"+m.start+"\t"+m.end+"\n";
 		}
-	}
-
 
+		writeStringToFile(TraceFilet, result+ClassName);
+	}
+}
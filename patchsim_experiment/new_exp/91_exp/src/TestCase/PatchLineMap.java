@@ -0,0 +1,171 @@
+package TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wickedsource.diffparser.api.DiffParser;
+import org.wickedsource.diffparser.api.UnifiedDiffParser;
+import org.wickedsource.diffparser.api.model.Diff;
+import org.wickedsource.diffparser.api.model.Hunk;
+import org.wickedsource.diffparser.api.model.Line;
+
+import DefectRepairing.LineNumber;
+
+/*
+ * Line mapping of a patched file back onto the buggy file, parsed once per patch.
+ * Lines up to the end of the last hunk are kept in arrays indexed by patched line;
+ * after that the two files only differ by a constant offset, so no line count is needed.
+ */
+public class PatchLineMap {
+
+	private static final Map<String, PatchLineMap> cache = new HashMap<String, PatchLineMap>();
+
+	private int[] line;
+	private int[] addedline;
+	private boolean[] inserted;
+	private int last = 0;
+	private int offset = 0;
+
+	private PatchLineMap() {
+		line = new int[256];
+		addedline = new int[256];
+		inserted = new boolean[256];
+	}
+
+	public static PatchLineMap get(String filepath) {
+		File f = new File(filepath);
+		String key = f.getAbsolutePath() + ":" + f.lastModified();
+		synchronized (cache) {
+			PatchLineMap m = cache.get(key);
+			if (m == null) {
+				m = parse(filepath);
+				cache.put(key, m);
+			}
+			return m;
+		}
+	}
+
+	public static PatchLineMap parse(String filepath) {
+		DiffParser parser = new UnifiedDiffParser();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(filepath);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		List<Diff> diff = parser.parse(in);
+		Diff d = diff.get(0);
+		PatchLineMap m = new PatchLineMap();
+		int fromp = -1, top = -1, addedlines = -1, lastfromp = -1;
+		for (Hunk h : d.getHunks()) {
+			if (fromp != -1) {
+				while (fromp < h.getFromFileRange().getLineStart() - 1) {
+					m.put(++top, ++fromp, 0, false);
+				}
+			} else {
+				fromp = h.getFromFileRange().getLineStart() - 1;
+				top = h.getToFileRange().getLineStart() - 1;
+				for (int i = 1; i <= top; i++)
+					m.put(i, i, 0, false);
+			}
+			for (Line l : h.getLines()) {
+				switch (l.getLineType()) {
+				case FROM:
+					fromp++;
+					break;
+				case TO:
+					m.put(++top, lastfromp, ++addedlines, true);
+					break;
+				case NEUTRAL:
+					m.put(++top, ++fromp, 0, false);
+					lastfromp = fromp;
+					addedlines = 0;
+					break;
+				}
+			}
+		}
+		if (top > 0) {
+			m.last = top;
+			m.offset = top - fromp;
+		}
+		return m;
+	}
+
+	private void put(int to, int from, int added, boolean isInserted) {
+		if (to < 0)
+			return;
+		if (to >= line.length) {
+			int size = Math.max(to + 1, line.length * 2);
+			line = Arrays.copyOf(line, size);
+			addedline = Arrays.copyOf(addedline, size);
+			inserted = Arrays.copyOf(inserted, size);
+		}
+		line[to] = from;
+		addedline[to] = added;
+		inserted[to] = isInserted;
+	}
+
+	/* last patched line covered by the hunks, 0 for an empty diff */
+	public int lastLine() {
+		return last;
+	}
+
+	public LineNumber lineNumber(int ln) {
+		if (ln >= 1 && ln <= last)
+			return new LineNumber(line[ln], addedline[ln]);
+		if (ln > last)
+			return new LineNumber(ln - offset, 0);
+		return new LineNumber(ln, 0);
+	}
+
+	/* buggy line of a patched line, -1 for lines added by the patch */
+	public int originalLine(int ln) {
+		if (ln >= 1 && ln <= last)
+			return inserted[ln] ? -1 : line[ln];
+		if (ln > last)
+			return ln - offset;
+		return ln;
+	}
+
+	/* patched line following ln in patched order, null if ln is not a line of the patched file */
+	public LineNumber next(LineNumber ln) {
+		LineNumber start = new LineNumber(0, 0);
+		if (ln.compareTo(start) == 0)
+			return lineNumber(1);
+		int lo = 1, hi = last;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = new LineNumber(line[mid], addedline[mid]).compareTo(ln);
+			if (c == 0)
+				return lineNumber(mid + 1);
+			if (c < 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		int t = ln.getLine() + offset;
+		if (ln.getAddedline() == 0 && t > last)
+			return lineNumber(t + 1);
+		return null;
+	}
+
+	public Map<Integer, LineNumber> toMap(int alllines) {
+		Map<Integer, LineNumber> lnmap = new HashMap<Integer, LineNumber>();
+		for (int i = 1; i <= Math.max(alllines, last); i++)
+			lnmap.put(i, lineNumber(i));
+		return lnmap;
+	}
+
+	public Map<Integer, Integer> toLineMap(int alllines) {
+		Map<Integer, Integer> lnmap = new HashMap<Integer, Integer>();
+		for (int i = 1; i <= Math.max(alllines, last); i++)
+			lnmap.put(i, originalLine(i));
+		return lnmap;
+	}
+}
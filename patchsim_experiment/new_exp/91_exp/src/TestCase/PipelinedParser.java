@@ -0,0 +1,235 @@
+package TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * TraceParser.run overlapped with tracing: the LCS work of a test starts as soon as tracer.py
+ * lists it in <tracedir>/finished, while the later tests are still running.
+ *
+ * usage: PipelinedParser <project> <bugid> <patch_no> <tracedir> <patchdir> <path_to_d4j>
+ *                        [threads] [idle seconds]
+ * One thread follows the finished manifest and reads the traces of each test, which are
+ * handed over on a bounded queue (so at most a few full traces are held at once) to the
+ * worker threads. A worker computes the buggy/patched distance of its test and the distances
+ * of its buggy _e trace to those of all tests taken before it. Once <tracedir>/done exists
+ * and the queue is drained, the arrays and the verdict of TraceParser.run are written with
+ * TraceParser.finish. Tests are indexed in the order they finished.
+ */
+public class PipelinedParser {
+	static final long POLL = 500;
+
+	static class Trace {
+		String name;
+		ArrayList<Integer> buggy_e, spec1, spec2;
+		double[] row;
+		double dis_2, Length, LCS;
+		// read failures, oversized traces waiting for the verdict on the fail tests
+		volatile boolean removed, deferred;
+	}
+
+	static final Trace END = new Trace();
+
+	String tracedir, patch_no;
+	PatchLineMap LNMap;
+	List<String> failing_tests;
+	BlockingQueue<Trace> queue;
+	List<Trace> traces = new ArrayList<Trace>();
+
+	PipelinedParser(String project, String bugid, String _patch_no, String _tracedir, String patchdir, int threads) {
+		patch_no = _patch_no;
+		tracedir = new File(_tracedir, project + bugid + "b_" + patch_no).toString();
+		LNMap = PatchLineMap.get(new File(patchdir, patch_no).toString());
+		failing_tests = TraceParser.get_failing_tests(project, bugid);
+		queue = new ArrayBlockingQueue<Trace>(Math.max(1, threads));
+	}
+
+	File trace(String dir, String name) {
+		return new File(new File(tracedir, dir), name);
+	}
+
+	/* null for tests without a trace in both versions, which TraceParser.run skips too */
+	Trace load(String name) {
+		if (!trace("buggy_e", name).exists() || !trace("patched_e", name).exists())
+			return null;
+		Trace t = new Trace();
+		t.name = name;
+		try {
+			t.buggy_e = TraceParser.read(trace("buggy_e", name));
+			TraceParser.read(trace("patched_e", name), LNMap);
+		} catch (Exception e) {
+			e.printStackTrace();
+			t.buggy_e = new ArrayList<Integer>();
+			t.removed = true;
+			return t;
+		}
+		try {
+			t.spec1 = TraceParser.read(trace("buggy", name));
+			t.spec2 = TraceParser.read(trace("patched", name), LNMap);
+		} catch (Exception e) {
+			e.printStackTrace();
+			t.removed = true;
+		}
+		return t;
+	}
+
+	void follow(long idle_limit) throws InterruptedException {
+		File finished = new File(tracedir, "finished");
+		File done = new File(tracedir, "done");
+		long last = System.currentTimeMillis();
+		int n = 0;
+		try {
+			while (true) {
+				boolean isDone = done.exists();
+				List<String> l = AnytimeClassifier.readLines(finished);
+				for (; n < l.size(); n++) {
+					Trace t = load(l.get(n));
+					if (t != null)
+						queue.put(t);
+					last = System.currentTimeMillis();
+				}
+				if (isDone)
+					return;
+				if (System.currentTimeMillis() - last > idle_limit) {
+					System.err.println("no test finished in " + idle_limit / 1000 + "s, parsing what is there");
+					return;
+				}
+				Thread.sleep(POLL);
+			}
+		} finally {
+			queue.put(END);
+		}
+	}
+
+	void analyse(Trace t, List<Trace> before) {
+		if (!t.removed) {
+			if ((double) t.spec1.size() * (double) t.spec2.size() > 5e9)
+				t.deferred = true;
+			else {
+				t.Length = Math.max(t.spec1.size(), t.spec2.size());
+				t.LCS = TraceParser.diff(t.spec1, t.spec2);
+				t.dis_2 = 1 - t.LCS / t.Length;
+			}
+		}
+		t.spec1 = null;
+		t.spec2 = null;
+		t.row = new double[before.size()];
+		for (int j = 0; j < before.size(); j++) {
+			Trace o = before.get(j);
+			double Length = Math.max(t.buggy_e.size(), o.buggy_e.size());
+			if (Length == 0) {
+				t.row[j] = 1;
+				continue;
+			}
+			try {
+				t.row[j] = 1 - TraceParser.diff(t.buggy_e, o.buggy_e) / Length;
+			} catch (Exception e) {
+				e.printStackTrace();
+				t.removed = true;
+				o.removed = true;
+			}
+		}
+	}
+
+	void work() throws InterruptedException {
+		while (true) {
+			Trace t = queue.take();
+			if (t == END) {
+				queue.put(END);
+				return;
+			}
+			List<Trace> before;
+			synchronized (traces) {
+				before = new ArrayList<Trace>(traces);
+				traces.add(t);
+			}
+			analyse(t, before);
+		}
+	}
+
+	void finish() {
+		int len = traces.size();
+		String[] dict = new String[len];
+		double[][] dis = new double[len][len];
+		double[] dis_2 = new double[len], length_array = new double[len], LCS_array = new double[len];
+		Set<Integer> pass = new TreeSet<Integer>(), fail = new TreeSet<Integer>(), gen = new TreeSet<Integer>();
+		Set<Integer> remove_list = new TreeSet<Integer>();
+		for (int i = 0; i < len; i++) {
+			Trace t = traces.get(i);
+			dict[i] = t.name;
+			if (t.name.startsWith("Randoop"))
+				gen.add(i);
+			else if (TraceParser.in_list(failing_tests, t.name))
+				fail.add(i);
+			else
+				pass.add(i);
+			for (int j = 0; j < i; j++) {
+				dis[i][j] = t.row[j];
+				dis[j][i] = t.row[j];
+			}
+		}
+		for (int i = 0; i < len; i++) {
+			Trace t = traces.get(i);
+			if (t.deferred && !t.removed && fail.contains(i) && fail.size() == 1) {
+				// the only failing test is compared whatever its size, as in TraceParser.run
+				try {
+					ArrayList<Integer> spec1 = TraceParser.read(trace("buggy", t.name));
+					ArrayList<Integer> spec2 = TraceParser.read(trace("patched", t.name), LNMap);
+					t.Length = Math.max(spec1.size(), spec2.size());
+					t.LCS = TraceParser.diff(spec1, spec2);
+					t.dis_2 = 1 - t.LCS / t.Length;
+					t.deferred = false;
+				} catch (Exception e) {
+					e.printStackTrace();
+					t.removed = true;
+				}
+			}
+			if (t.removed || t.deferred) {
+				remove_list.add(i);
+				continue;
+			}
+			dis_2[i] = t.dis_2;
+			length_array[i] = t.Length;
+			LCS_array[i] = t.LCS;
+		}
+		TraceParser.finish(patch_no, dict, pass, fail, gen, remove_list, dis, dis_2, length_array, LCS_array);
+	}
+
+	public static void main(String args[]) throws Exception {
+		TraceParser.Path_to_d4j = args[5];
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+		final long idle = (args.length > 7 ? Long.parseLong(args[7]) : 3600) * 1000;
+		final PipelinedParser p = new PipelinedParser(args[0], args[1], args[2], args[3], args[4], threads);
+		Thread follower = new Thread() {
+			public void run() {
+				try {
+					p.follow(idle);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		follower.start();
+		Thread[] workers = new Thread[Math.max(1, threads)];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					try {
+						p.work();
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			workers[i].start();
+		}
+		follower.join();
+		for (Thread w : workers)
+			w.join();
+		new File(p.patch_no).mkdirs();
+		p.finish();
+	}
+}
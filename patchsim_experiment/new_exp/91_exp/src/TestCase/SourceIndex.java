@@ -0,0 +1,298 @@
+package TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.apache.commons.lang.StringUtils;
+
+/*
+ * Persisted index of the type and method declarations of a source tree, so that MethodName
+ * (PatchInfo) and listTestCase answer their queries without parsing the same files again.
+ *
+ * usage: SourceIndex <dir|file>...   builds or refreshes the index of each root
+ *
+ * The index of a root lives in DIR/<sha1 of its canonical path>, one record per file keyed by
+ * the sha1 of the file content: only new or changed files are parsed, in parallel with one
+ * JLS3 parser per thread, and the index is rewritten only when something changed. Records:
+ *   F <path> <sha1> <package>
+ *   T <name> <listed>                                 type declarations in visiting order
+ *   M <type> <name> <signature> <start> <end> <ctor>  method declarations in visiting order
+ * A type is listed when neither it nor an enclosing type is an interface, which is what
+ * listTestCase reports. <type> is the index of the type declaring the method, -1 for methods
+ * of enums and anonymous classes.
+ */
+public class SourceIndex {
+	public static String DIR = "source_index";
+
+	public static class Type {
+		public String name;
+		public boolean listed;
+	}
+
+	public static class Method {
+		public int type;
+		public String name, signature;
+		public int start, end;
+		public boolean constructor;
+	}
+
+	public static class Unit {
+		public String hash, pkg = "";
+		public List<Type> types = new ArrayList<Type>();
+		public List<Method> methods = new ArrayList<Method>();
+
+		// package.FirstType, as MethodName reports the patched class
+		public String className() {
+			String name = types.isEmpty() ? "" : types.get(0).name;
+			return pkg.length() == 0 ? name : pkg + "." + name;
+		}
+	}
+
+	File file;
+	Map<String, Unit> units = new LinkedHashMap<String, Unit>();
+	boolean changed = false;
+
+	SourceIndex(File root) throws IOException {
+		file = new File(DIR, sha1(root.getCanonicalPath().getBytes("UTF-8")));
+		if (file.exists())
+			load();
+	}
+
+	static String sha1(byte[] data) {
+		try {
+			StringBuilder s = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(data))
+				s.append(String.format("%02x", b));
+			return s.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static byte[] readBytes(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try {
+			int n = 0, r;
+			while (n < data.length && (r = in.read(data, n, data.length - n)) > 0)
+				n += r;
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	void load() throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			Unit u = null;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				String[] r = line.split("\t", -1);
+				if (r[0].equals("F")) {
+					u = new Unit();
+					u.hash = r[2];
+					u.pkg = r[3];
+					units.put(r[1], u);
+				} else if (r[0].equals("T")) {
+					Type t = new Type();
+					t.name = r[1];
+					t.listed = r[2].equals("1");
+					u.types.add(t);
+				} else if (r[0].equals("M")) {
+					Method m = new Method();
+					m.type = Integer.parseInt(r[1]);
+					m.name = r[2];
+					m.signature = r[3];
+					m.start = Integer.parseInt(r[4]);
+					m.end = Integer.parseInt(r[5]);
+					m.constructor = r[6].equals("1");
+					u.methods.add(m);
+				}
+			}
+		} catch (RuntimeException e) {
+			// unreadable index, everything is parsed again
+			units.clear();
+		} finally {
+			in.close();
+		}
+	}
+
+	void save() throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		PrintWriter out = new PrintWriter(new FileWriter(tmp));
+		for (Map.Entry<String, Unit> e : units.entrySet()) {
+			Unit u = e.getValue();
+			out.print("F\t" + e.getKey() + "\t" + u.hash + "\t" + u.pkg + "\n");
+			for (Type t : u.types)
+				out.print("T\t" + t.name + "\t" + (t.listed ? 1 : 0) + "\n");
+			for (Method m : u.methods)
+				out.print("M\t" + m.type + "\t" + m.name + "\t" + m.signature + "\t" + m.start + "\t" + m.end + "\t"
+						+ (m.constructor ? 1 : 0) + "\n");
+		}
+		out.close();
+		// concurrent writers of the same index each replace it whole
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("cannot write " + file);
+		}
+	}
+
+	static Unit parse(String source, String hash) {
+		ASTParser parser = ASTParser.newParser(AST.JLS3);
+		parser.setSource(source.toCharArray());
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		final CompilationUnit cu = (CompilationUnit) parser.createAST(null);
+		final Unit u = new Unit();
+		u.hash = hash;
+		if (cu.getPackage() != null)
+			u.pkg = cu.getPackage().getName().toString();
+		final Map<TypeDeclaration, Integer> ids = new HashMap<TypeDeclaration, Integer>();
+		cu.accept(new ASTVisitor() {
+			int interfaces = 0;
+
+			public boolean visit(TypeDeclaration node) {
+				if (node.isInterface())
+					interfaces++;
+				Type t = new Type();
+				t.name = node.getName().toString();
+				t.listed = interfaces == 0;
+				ids.put(node, u.types.size());
+				u.types.add(t);
+				return true;
+			}
+
+			public void endVisit(TypeDeclaration node) {
+				if (node.isInterface())
+					interfaces--;
+			}
+
+			public boolean visit(MethodDeclaration node) {
+				Method m = new Method();
+				Integer type = ids.get(node.getParent());
+				m.type = type == null ? -1 : type;
+				m.name = node.getName().toString();
+				m.constructor = node.isConstructor();
+				m.start = cu.getLineNumber(node.getStartPosition());
+				m.end = cu.getLineNumber(node.getStartPosition() + node.getLength());
+				m.signature = "";
+				if (node.getReturnType2() != null) {
+					m.signature = node.getReturnType2().toString();
+					List<SingleVariableDeclaration> l = node.parameters();
+					List<String> types = new ArrayList<String>();
+					for (SingleVariableDeclaration o : l)
+						types.add(o.getType().toString());
+					if (types.size() != 0)
+						m.signature = m.signature + " (" + StringUtils.join(types.toArray(), ", ") + ")";
+				}
+				u.methods.add(m);
+				return true;
+			}
+		});
+		return u;
+	}
+
+	// the units of files, parsing those not in the index or changed since
+	Map<File, Unit> update(List<File> files) throws Exception {
+		Map<String, Unit> byHash = new HashMap<String, Unit>();
+		for (Unit u : units.values())
+			byHash.put(u.hash, u);
+		Map<File, Unit> result = new LinkedHashMap<File, Unit>();
+		Map<File, Future<Unit>> parsed = new LinkedHashMap<File, Future<Unit>>();
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			for (File f : files) {
+				final byte[] data = readBytes(f);
+				final String hash = sha1(data);
+				Unit u = byHash.get(hash);
+				if (u != null) {
+					result.put(f, u);
+					continue;
+				}
+				result.put(f, null);
+				parsed.put(f, pool.submit(new Callable<Unit>() {
+					public Unit call() {
+						return parse(new String(data), hash);
+					}
+				}));
+			}
+			for (Map.Entry<File, Future<Unit>> e : parsed.entrySet())
+				result.put(e.getKey(), e.getValue().get());
+		} finally {
+			pool.shutdown();
+		}
+		for (Map.Entry<File, Unit> e : result.entrySet()) {
+			String path = e.getKey().getCanonicalPath();
+			if (units.get(path) != e.getValue()) {
+				units.put(path, e.getValue());
+				changed = true;
+			}
+		}
+		for (String path : new ArrayList<String>(units.keySet()))
+			if (!new File(path).exists()) {
+				units.remove(path);
+				changed = true;
+			}
+		return result;
+	}
+
+	// the units of files under root, in the order of files
+	public static Map<File, Unit> units(File root, List<File> files) throws Exception {
+		SourceIndex index = new SourceIndex(root);
+		Map<File, Unit> result = index.update(files);
+		if (index.changed)
+			index.save();
+		return result;
+	}
+
+	public static Unit unit(File file) throws Exception {
+		List<File> files = new ArrayList<File>();
+		files.add(file);
+		return units(file.getAbsoluteFile().getParentFile(), files).get(file);
+	}
+
+	public static void sources(File dir, List<File> files) {
+		for (File f : dir.listFiles()) {
+			if (f.isDirectory())
+				sources(f, files);
+			else if (f.getName().endsWith(".java"))
+				files.add(f);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (String a : args) {
+			File root = new File(a);
+			List<File> files = new ArrayList<File>();
+			if (root.isDirectory())
+				sources(root, files);
+			else
+				files.add(root);
+			System.out.println(a + "\t" + units(root, files).size());
+		}
+	}
+}
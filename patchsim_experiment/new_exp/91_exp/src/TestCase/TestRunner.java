@@ -0,0 +1,260 @@
+package TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+
+/*
+ * Long-lived JUnit runner used instead of one "defects4j test -t" per test.
+ *
+ * usage: TestRunner <tracefile> <timeout seconds> <test classpath>
+ * Commands are read from stdin, one per line:
+ *   run <Class::method> <destination> [<destination_e>]
+ *                          run one test method, move <tracefile> to <destination> and
+ *                          <tracefile>_e to <destination_e>
+ *   timeout <seconds>      timeout of the tests that follow, answered with "ok"
+ *   quit
+ * Every run is answered on stdout with "pass", "fail", "error <msg>" or "timeout".
+ * After a timeout the runner exits, since the test thread cannot be stopped safely;
+ * the client starts a new one. Output of the tests goes to stderr.
+ *
+ * Each test gets a class loader of its own, so static state and static initializers are
+ * as fresh as in a JVM per test; the class files are read from the classpath once and
+ * shared by the loaders, and a loader is closed after its test. Under the LineTracer agent
+ * the trace files are opened for that loader. The runner is started in the checkout, the working directory of
+ * "defects4j test".
+ */
+public class TestRunner {
+	PrintStream out;
+	File tracefile;
+	long timeout;
+	String classpath;
+	ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	public TestRunner(File _tracefile, long _timeout, String _classpath) {
+		tracefile = _tracefile;
+		timeout = _timeout;
+		classpath = _classpath;
+	}
+
+	/*
+	 * Child-first loader: the checkout's classes (and its copies of libraries this tool
+	 * also ships, such as commons-lang) are loaded from the test classpath, while JUnit
+	 * always comes from the parent so every loader sees the same Request/Result classes.
+	 * The class files it reads are kept in classes, shared by the loaders of one classpath;
+	 * each loader still defines (and LineTracer instruments) its own copy.
+	 */
+	static class TestClassLoader extends URLClassLoader {
+		static final String[] shared = { "java.", "javax.", "sun.", "jdk.", "org.junit.", "junit.", "org.hamcrest." };
+		/* class files by classpath, then by class name */
+		static final Map<String, Map<String, byte[]>> cache = new ConcurrentHashMap<String, Map<String, byte[]>>();
+
+		final Map<String, byte[]> classes;
+
+		TestClassLoader(URL[] urls, ClassLoader parent, Map<String, byte[]> _classes) {
+			super(urls, parent);
+			classes = _classes;
+		}
+
+		static byte[] read(URL url) throws IOException {
+			InputStream in = url.openStream();
+			try {
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				byte[] b = new byte[1 << 13];
+				for (int n = in.read(b); n > 0; n = in.read(b))
+					buf.write(b, 0, n);
+				return buf.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+
+		@Override
+		@SuppressWarnings("deprecation") // getDefinedPackage is not in Java 8
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] b = classes.get(name);
+			if (b == null) {
+				URL url = findResource(name.replace('.', '/') + ".class");
+				if (url == null)
+					throw new ClassNotFoundException(name);
+				try {
+					b = read(url);
+				} catch (IOException e) {
+					throw new ClassNotFoundException(name, e);
+				}
+				classes.put(name, b);
+			}
+			int dot = name.lastIndexOf('.');
+			if (dot > 0) {
+				String pkg = name.substring(0, dot);
+				synchronized (this) {
+					if (getPackage(pkg) == null)
+						definePackage(pkg, null, null, null, null, null, null, null);
+				}
+			}
+			return defineClass(name, b, 0, b.length);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			for (String p : shared)
+				if (name.startsWith(p))
+					return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					try {
+						c = findClass(name);
+					} catch (ClassNotFoundException e) {
+						c = getParent().loadClass(name);
+					}
+				}
+				if (resolve)
+					resolveClass(c);
+				return c;
+			}
+		}
+	}
+
+	public static ClassLoader loader(String classpath, ClassLoader parent) throws MalformedURLException {
+		List<URL> urls = new ArrayList<URL>();
+		for (String s : classpath.split(File.pathSeparator)) {
+			if (s.length() != 0)
+				urls.add(new File(s).toURI().toURL());
+		}
+		Map<String, byte[]> classes = new ConcurrentHashMap<String, byte[]>();
+		Map<String, byte[]> known = TestClassLoader.cache.putIfAbsent(classpath, classes);
+		if (known != null)
+			classes = known;
+		return new TestClassLoader(urls.toArray(new URL[0]), parent, classes);
+	}
+
+	public static Result runTest(ClassLoader loader, String test) throws ClassNotFoundException {
+		String[] s = TraceParser.split(test);
+		Class<?> c = Class.forName(s[0], false, loader);
+		Thread.currentThread().setContextClassLoader(loader);
+		return new JUnitCore().run(Request.method(c, s[1]));
+	}
+
+	/* moves the trace written during the last test to its own file */
+	public static void rotate(File tracefile, String destination) throws IOException {
+		if (tracefile.exists())
+			Files.move(tracefile.toPath(), new File(destination).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static File e(File tracefile) {
+		return new File(tracefile.getPath() + "_e");
+	}
+
+	/* a fresh loader for one test, with the trace files of LineTracer opened for it */
+	static ClassLoader prepare(String classpath, File tracefile) throws IOException {
+		Files.deleteIfExists(tracefile.toPath());
+		Files.deleteIfExists(e(tracefile).toPath());
+		ClassLoader loader = loader(classpath, TestRunner.class.getClassLoader());
+		LineTracer.open(loader, tracefile.getPath());
+		return loader;
+	}
+
+	/* after a test that did not finish: the trace files of loader are dropped */
+	static void close(ClassLoader loader) {
+		if (loader == null)
+			return;
+		try {
+			LineTracer.close(loader);
+			if (loader instanceof URLClassLoader)
+				((URLClassLoader) loader).close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/* closes the trace files of loader and loader itself, and moves the files to their destinations */
+	static void finish(ClassLoader loader, File tracefile, String[] destinations) throws IOException {
+		LineTracer.close(loader);
+		if (loader instanceof URLClassLoader)
+			((URLClassLoader) loader).close();
+		rotate(tracefile, destinations[0]);
+		if (destinations.length > 1)
+			rotate(e(tracefile), destinations[1]);
+		else
+			Files.deleteIfExists(e(tracefile).toPath());
+	}
+
+	String run(final String test, String[] destinations) {
+		ClassLoader prepared = null;
+		try {
+			final ClassLoader loader = prepared = prepare(classpath, tracefile);
+			Future<Result> f = executor.submit(new java.util.concurrent.Callable<Result>() {
+				public Result call() throws Exception {
+					return runTest(loader, test);
+				}
+			});
+			Result r;
+			try {
+				r = f.get(timeout, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				return "timeout";
+			}
+			prepared = null;
+			finish(loader, tracefile, destinations);
+			return r.wasSuccessful() ? "pass" : "fail";
+		} catch (Exception e) {
+			e.printStackTrace();
+			close(prepared);
+			return "error " + e;
+		}
+	}
+
+	public void serve() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			String[] cmd = line.trim().split(" ");
+			if (cmd[0].equals("quit"))
+				break;
+			String res;
+			if (cmd[0].equals("run") && (cmd.length == 3 || cmd.length == 4))
+				res = run(cmd[1], Arrays.copyOfRange(cmd, 2, cmd.length));
+			else if (cmd[0].equals("timeout") && cmd.length == 2) {
+				timeout = Long.parseLong(cmd[1]);
+				res = "ok";
+			} else
+				res = "error unknown command " + line;
+			out.println(res);
+			out.flush();
+			if (res.equals("timeout"))
+				System.exit(2);
+		}
+		System.exit(0);
+	}
+
+	public static void main(String[] args) throws IOException {
+		PrintStream protocol = System.out;
+		System.setOut(System.err);
+		TestRunner runner = new TestRunner(new File(args[0]), Long.parseLong(args[1]), args[2]);
+		runner.out = protocol;
+		runner.serve();
+	}
+}
@@ -0,0 +1,105 @@
+package TestCase;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/*
+ * Resident JVM for the PatchSim tools, used by pylib/tool_server.py instead of one make target
+ * (a fresh JVM loading JDT) per call.
+ *
+ * Requests are read from stdin, one per line, fields separated by tabs:
+ *   main <classpath> <class> <args...>   run <class>.main(args), <classpath> (may be empty)
+ *                                        is searched before bin/
+ *   javac <args...>                      compile with the in-process system compiler
+ *   quit
+ * Every request gets a fresh TestRunner loader for bin/ and <classpath>, so the tools start
+ * from clean static state while JDT and the other libraries stay loaded in the parent. The
+ * answer is "<status> <n>" on a line, then the n bytes the tool wrote to System.out. Status
+ * is 0, 1 if the tool threw, or the javac exit code. System.err is passed through.
+ */
+public class ToolServer {
+	PrintStream out;
+	String bin;
+
+	public ToolServer() throws Exception {
+		bin = new File(ToolServer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+	}
+
+	int main(String classpath, String name, String[] args) throws Exception {
+		String cp = classpath.length() == 0 ? bin : classpath + File.pathSeparator + bin;
+		ClassLoader loader = TestRunner.loader(cp, ToolServer.class.getClassLoader());
+		ClassLoader context = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(loader);
+		try {
+			Method m = Class.forName(name, true, loader).getMethod("main", String[].class);
+			m.invoke(null, (Object) args);
+			return 0;
+		} catch (InvocationTargetException e) {
+			e.getCause().printStackTrace();
+			return 1;
+		} finally {
+			Thread.currentThread().setContextClassLoader(context);
+		}
+	}
+
+	int javac(String[] args, PrintStream captured) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			System.err.println("no system java compiler");
+			return 2;
+		}
+		return compiler.run(null, captured, System.err, args);
+	}
+
+	int handle(String[] cmd, PrintStream captured) {
+		try {
+			if (cmd[0].equals("main") && cmd.length >= 3)
+				return main(cmd[1], cmd[2], Arrays.copyOfRange(cmd, 3, cmd.length));
+			if (cmd[0].equals("javac"))
+				return javac(Arrays.copyOfRange(cmd, 1, cmd.length), captured);
+			System.err.println("unknown request " + cmd[0]);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		return 1;
+	}
+
+	public void serve() throws Exception {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			String[] cmd = line.split("\t", -1);
+			if (cmd[0].equals("quit"))
+				break;
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			PrintStream captured = new PrintStream(buf, true);
+			System.setOut(captured);
+			int status;
+			try {
+				status = handle(cmd, captured);
+			} finally {
+				captured.flush();
+				System.setOut(System.err);
+			}
+			out.print(status + " " + buf.size() + "\n");
+			buf.writeTo(out);
+			out.flush();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		PrintStream protocol = System.out;
+		System.setOut(System.err);
+		ToolServer server = new ToolServer();
+		server.out = protocol;
+		server.serve();
+	}
+}
@@ -1,33 +1,59 @@
 package TestCase;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.wickedsource.diffparser.api.DiffParser;
-import org.wickedsource.diffparser.api.UnifiedDiffParser;
-import org.wickedsource.diffparser.api.model.Diff;
-import org.wickedsource.diffparser.api.model.Hunk;
-import org.wickedsource.diffparser.api.model.Line;
-
-
-import DefectRepairing.jPickle;
+import DefectRepairing.ColumnarFile;
+import DefectRepairing.SLP;
+import DefectRepairing.parser.Spectrum.Mode.ModeEnum;
 public class TraceParser {
-	
+	/*
+	 * LCS of the traces: LCS_simple, the DP below, or LCS_compressed (DefectRepairing.SLP),
+	 * chosen with -Dpatchsim.lcs=<mode> (make LCS=<mode>). With -Dpatchsim.lcs.check=true
+	 * LCS_compressed is checked against LCS_simple on every pair, a mismatch is reported on
+	 * stderr and the LCS_simple result kept.
+	 */
+	public static final ModeEnum LCS_MODE = ModeEnum.valueOf(System.getProperty("patchsim.lcs", "LCS_simple"));
+	public static final boolean LCS_CHECK = Boolean.getBoolean("patchsim.lcs.check");
+
 	public static int diff(ArrayList<Integer>spec1,ArrayList<Integer>spec2){
+		if (LCS_MODE != ModeEnum.LCS_compressed)
+			return diff_simple(spec1, spec2);
+		int lcs = SLP.lcs(spec1, spec2);
+		if (LCS_CHECK) {
+			int simple = diff_simple(spec1, spec2);
+			if (simple != lcs) {
+				System.err.println("LCS_compressed " + lcs + " != LCS_simple " + simple + " on traces of "
+						+ spec1.size() + " and " + spec2.size() + " lines");
+				return simple;
+			}
+		}
+		return lcs;
+	}
+
+	static int diff_simple(ArrayList<Integer>spec1,ArrayList<Integer>spec2){
 		int difftype = 1;
                 Iterator<Integer> it1 = spec1.iterator(), it2 = spec2.iterator();
                 if(difftype == 0)
@@ -99,59 +125,98 @@ public class TraceParser {
 		return spec;
 	}
 	
-	public static Map<Integer, Integer> getLineMap(int alllines, String filepath) {
-		DiffParser parser = new UnifiedDiffParser();
-		InputStream in = null;
+	public static ArrayList<Integer> form(BufferedReader reader, PatchLineMap LNMap) throws IOException{
+		ArrayList<Integer> spec = new ArrayList<Integer>();
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			line=line.trim();
+			if(line.startsWith("---")){
+				line=line.split(":")[1];
+				spec.add(LNMap.originalLine(Integer.parseInt(line)));
+			}
+		}
+		return spec;
+	}
+	
+	/* text traces, or the binary traces written by LineTracer */
+	public static ArrayList<Integer> read(File f, PatchLineMap LNMap) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
 		try {
-			in = new FileInputStream(filepath);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			if (f.length() < 4 || in.readInt() != LineTracer.MAGIC) {
+				in.close();
+				BufferedReader reader = new BufferedReader(new FileReader(f));
+				try {
+					return LNMap == null ? form(reader) : form(reader, LNMap);
+				} finally {
+					reader.close();
+				}
+			}
+			int n = (int) ((f.length() - 4) / 4);
+			ArrayList<Integer> spec = new ArrayList<Integer>(n);
+			for (int i = 0; i < n; i++) {
+				int line = in.readInt();
+				spec.add(LNMap == null ? line : LNMap.originalLine(line));
+			}
+			return spec;
+		} finally {
+			in.close();
 		}
-		
-		List<Diff> diff = parser.parse(in);
-		Diff d = diff.get(0);
-		Map<Integer, Integer> lnmap = new HashMap<Integer, Integer>();
-		List<Hunk> hunks = d.getHunks();
-		int fromp = -1, top = -1;
-		for (Iterator<Hunk> it = hunks.iterator(); it.hasNext();) {
-			Hunk h = it.next();
-			List<Line> lines = h.getLines();
-			Iterator<Line> lit = lines.iterator();
+	}
 
-			if (fromp != -1) {
-				while (fromp < h.getFromFileRange().getLineStart() - 1) {
-					lnmap.put(++top, ++fromp);
-				}
-			} else {
-				fromp = h.getFromFileRange().getLineStart() - 1;
-				top = h.getToFileRange().getLineStart() - 1;
+	public static ArrayList<Integer> read(File f) throws IOException {
+		return read(f, null);
+	}
+
+	/*
+	 * Buggy traces shared by the patches of a bug (TestCase.classifier batch). Each patch has its
+	 * own copy of them, so they are keyed by content: a trace is read once and the LCS of two of
+	 * them computed once, whichever patches they come from. The lists are not modified afterwards.
+	 */
+	public static class BuggyTraces {
+		final ConcurrentHashMap<String, ArrayList<Integer>> traces = new ConcurrentHashMap<String, ArrayList<Integer>>();
+		final ConcurrentHashMap<String, Integer> lcs = new ConcurrentHashMap<String, Integer>();
+
+		public static String key(File f) throws IOException {
+			MessageDigest md;
+			try {
+				md = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
 			}
-			while (lit.hasNext()) {
-				Line l = lit.next();
-				switch (l.getLineType()) {
-				case FROM:
-					fromp++;
-					break;
-				case TO:
-					lnmap.put(++top, -1);
-					break;
-				case NEUTRAL:
-					lnmap.put(++top, ++fromp);
-					break;
-				}
+			InputStream in = new FileInputStream(f);
+			try {
+				byte[] buf = new byte[1 << 16];
+				for (int n = in.read(buf); n > 0; n = in.read(buf))
+					md.update(buf, 0, n);
+			} finally {
+				in.close();
 			}
+			return new BigInteger(1, md.digest()).toString(16);
 		}
-		while (top < alllines) {
-			lnmap.put(++top, ++fromp);
+
+		public ArrayList<Integer> read(File f, String key) throws IOException {
+			ArrayList<Integer> spec = traces.get(key);
+			if (spec == null) {
+				spec = TraceParser.read(f);
+				ArrayList<Integer> known = traces.putIfAbsent(key, spec);
+				if (known != null)
+					spec = known;
+			}
+			return spec;
 		}
-		for(int i=1;i<=alllines;i++)
-		{
-			if(!lnmap.containsKey(i)){
-				lnmap.put(i, i);
+
+		public int diff(String key1, ArrayList<Integer> spec1, String key2, ArrayList<Integer> spec2) {
+			String key = key1 + " " + key2;
+			Integer n = lcs.get(key);
+			if (n == null) {
+				n = TraceParser.diff(spec1, spec2);
+				lcs.put(key, n);
 			}
-			
+			return n;
 		}
-		return lnmap;
+	}
+
+	public static Map<Integer, Integer> getLineMap(int alllines, String filepath) {
+		return PatchLineMap.get(filepath).toLineMap(alllines);
 	}
 
 	
@@ -236,6 +301,12 @@ public class TraceParser {
 	}
 	
 	public static void run(String project,String bugid,String patch_no,String tracedir,String patchdir,boolean verbose) throws FileNotFoundException, IOException{
+		run(project, bugid, patch_no, tracedir, patchdir, verbose, null, System.out);
+	}
+
+	/* with buggy, the buggy traces come from it; the verdict goes to out */
+	public static void run(String project,String bugid,String patch_no,String tracedir,String patchdir,boolean verbose,
+			BuggyTraces buggy,PrintStream out) throws FileNotFoundException, IOException{
 
                 tracedir=new File(tracedir, project+bugid+"b_"+patch_no).toString();
                 
@@ -283,33 +354,37 @@ public class TraceParser {
                         index++;
                 }
                 if(verbose){
-                System.out.println(fail);
-                System.out.println(pass);
+                out.println(fail);
+                out.println(pass);
                 }
                 
+                PatchLineMap LNMap = PatchLineMap.get(new File(patchdir, patch_no).toString());
                 List<Integer>remove_list=new ArrayList<Integer>();
                 ArrayList[] SpecArray_buggy=new ArrayList[len];
                 ArrayList[] SpecArray_patched=new ArrayList[len];
+                String[] keys=new String[len];
                 
                 for(int i=0;i<len;i++) {
                         
                         String TraceFile=new File(tracedir_buggy, dict[i]).toString();
                         
                         try {
-                                SpecArray_buggy[i]=form(new BufferedReader(new FileReader(TraceFile)));
+                                if(buggy==null)
+                                        SpecArray_buggy[i]=read(new File(TraceFile));
+                                else {
+                                        keys[i]=BuggyTraces.key(new File(TraceFile));
+                                        SpecArray_buggy[i]=buggy.read(new File(TraceFile),keys[i]);
+                                }
                         } catch (Exception e) {
                                 e.printStackTrace();
                                 remove_list.add(i);
                                 continue;
                         }
                         
-                        Map<Integer, Integer> LNMap = getLineMap(3000,new File(patchdir, patch_no).toString());
-                        
-                        
                         TraceFile=new File(tracedir_patched, dict[i]).toString();
                         
                         try {
-                                SpecArray_patched[i]=form(new BufferedReader(new FileReader(TraceFile)),LNMap);
+                                SpecArray_patched[i]=read(new File(TraceFile),LNMap);
                         } catch (Exception e) {
                                 e.printStackTrace();
                                 remove_list.add(i);
@@ -317,7 +392,7 @@ public class TraceParser {
                         }
                 }
                 if(verbose)
-                System.out.println("1 "+remove_list);
+                out.println("1 "+remove_list);
                 for(int i=0;i<len;i++){
                         for(int j=0;j<len;j++){
                                 if(i==j){
@@ -336,7 +411,8 @@ public class TraceParser {
                                         continue;
                                 }
                                 try{
-                                        LCS=diff(SpecArray_buggy[i],SpecArray_buggy[j]);
+                                        LCS=buggy==null ? diff(SpecArray_buggy[i],SpecArray_buggy[j])
+                                                : buggy.diff(keys[i],SpecArray_buggy[i],keys[j],SpecArray_buggy[j]);
                                 } catch(Exception e){
                                         e.printStackTrace();
                                         remove_list.add(i);
@@ -347,7 +423,7 @@ public class TraceParser {
                         }
                 }
                 if(verbose)
-                System.out.println(2+" "+remove_list);
+                out.println(2+" "+remove_list);
                 //filter
                 
 //              for(int j=0;j<len;j++){
@@ -362,7 +438,7 @@ public class TraceParser {
                 //System.out.println(remove_list);
 
                 if(verbose)
-                System.out.println(3+" "+remove_list);
+                out.println(3+" "+remove_list);
                 if(false)
                 for(Iterator<Integer> it1=gen.iterator();it1.hasNext();){
                         int i=it1.next();
@@ -384,16 +460,17 @@ public class TraceParser {
                         if(remove_list.contains(i)){
                                 continue;
                         }
-                        if(verbose)System.out.println(dict[i]);
+                        if(verbose)out.println(dict[i]);
                         ArrayList<Integer> spec1=null;
                         String TraceFile=new File(new File(tracedir, "buggy").toString(), dict[i]).toString();
                         //System.out.println(TraceFile);
                         try{
-                                spec1=form(new BufferedReader(new FileReader(TraceFile)));
+                                File f=new File(TraceFile);
+                                spec1=buggy==null ? read(f) : buggy.read(f,BuggyTraces.key(f));
                         } catch(Exception e){
                                 e.printStackTrace();
-                                System.out.println(i);
-                                System.out.println(TraceFile);
+                                out.println(i);
+                                out.println(TraceFile);
                                 remove_list.add(i);
                                 continue;
                         }
@@ -402,7 +479,7 @@ public class TraceParser {
                         ArrayList<Integer> spec2=null;
                         TraceFile=new File(new File(tracedir, "patched").toString(), dict[i]).toString();
                         try{
-                                spec2=form(new BufferedReader(new FileReader(TraceFile)),getLineMap(3000,new File(patchdir, patch_no).toString()));
+                                spec2=read(new File(TraceFile),LNMap);
                         } catch(Exception e){
                                 e.printStackTrace();
                                 
@@ -418,7 +495,7 @@ public class TraceParser {
                         dis_2[i]=1-LCS/Length;
                         length_array[i]=Length;
                         LCS_array[i]=LCS;
-                        if(verbose)System.out.println(LCS);
+                        if(verbose)out.println(LCS);
                         
                 }
                 
@@ -431,11 +508,11 @@ public class TraceParser {
                                         if(remove_list.contains(j)){
                                                 continue;
                                         }
-                                        System.out.printf("%.6f ",dis[i][j]);
+                                        out.printf("%.6f ",dis[i][j]);
                                 }
-                                System.out.println();
+                                out.println();
                         }
-                        System.out.println();
+                        out.println();
                 }
                 
                 if(verbose){
@@ -443,22 +520,35 @@ public class TraceParser {
                                 if(remove_list.contains(j)){
                                         continue;
                                 }
-                                System.out.printf("%.6f ",dis_2[j]);
+                                out.printf("%.6f ",dis_2[j]);
                         }
-                        System.out.println();
+                        out.println();
                         for(int j=0;j<len;j++){
                                 if(remove_list.contains(j)){
                                         continue;
                                 }
                                 if(pass.contains(j))
-                                        System.out.print("    pass ");
+                                        out.print("    pass ");
                                 if(fail.contains(j))
-                                        System.out.print("    fail ");
+                                        out.print("    fail ");
                                 if(gen.contains(j))
-                                        System.out.print("     gen ");
+                                        out.print("     gen ");
                         }
-                        System.out.println();
+                        out.println();
                 }
+                finish(out, patch_no, dict, pass, fail, gen, remove_list, dis, dis_2, length_array, LCS_array);
+        }
+
+        public static void finish(String patch_no, String[] dict, Set<Integer> pass, Set<Integer> fail, Set<Integer> gen,
+                        Collection<Integer> remove_list, double[][] dis, double[] dis_2, double[] length_array,
+                        double[] LCS_array) {
+                finish(System.out, patch_no, dict, pass, fail, gen, remove_list, dis, dis_2, length_array, LCS_array);
+        }
+
+        /* drops the removed tests, writes the arrays under patch_no/ and prints the verdict to out */
+        public static void finish(PrintStream out, String patch_no, String[] dict, Set<Integer> pass, Set<Integer> fail,
+                        Set<Integer> gen, Collection<Integer> remove_list, double[][] dis, double[] dis_2,
+                        double[] length_array, double[] LCS_array) {
                 for (Integer j:remove_list){
                         if(pass.contains(j))
                                 pass.remove(j);
@@ -467,14 +557,14 @@ public class TraceParser {
                         if(gen.contains(j))
                                 gen.remove(j);
                 }
-              jPickle.dump(pass, patch_no+"/pass");
-              jPickle.dump(fail, patch_no+"/fail");
-              jPickle.dump(gen, patch_no+"/gen");
-              jPickle.dump(dis, patch_no+"/dis");
-              jPickle.dump(dis_2, patch_no+"/dis_2");
-              jPickle.dump(dict, patch_no+"/dict");
-              jPickle.dump(length_array, patch_no+"/Length_array");
-              jPickle.dump(LCS_array, patch_no+"/LCS_array");  
+              ColumnarFile.dump(pass, patch_no+"/pass");
+              ColumnarFile.dump(fail, patch_no+"/fail");
+              ColumnarFile.dump(gen, patch_no+"/gen");
+              ColumnarFile.dump(dis, patch_no+"/dis");
+              ColumnarFile.dump(dis_2, patch_no+"/dis_2");
+              ColumnarFile.dump(dict, patch_no+"/dict");
+              ColumnarFile.dump(length_array, patch_no+"/Length_array");
+              ColumnarFile.dump(LCS_array, patch_no+"/LCS_array");  
                 
                 double dis_pass=0,dis_fail=0,w_pass=0,w_fail=0;
                 if(pass.size()!=0&&fail.size()!=0){
@@ -514,9 +604,9 @@ public class TraceParser {
                 dis_fail=dis_fail/w_fail;
                 
                 if(dis_pass>dis_fail){
-                        System.out.println("Incorrect");
-                } else System.out.println("Correct");
-                System.out.printf("%.4f %.4f\n",dis_pass,dis_fail);
+                        out.println("Incorrect");
+                } else out.println("Correct");
+                out.printf("%.4f %.4f\n",dis_pass,dis_fail);
         }
         
 }
@@ -1,21 +1,31 @@
 package TestCase;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import DefectRepairing.parser.Spectrum;
 import DefectRepairing.parser.Spectrum.Mode.ModeEnum;
-import DefectRepairing.jPickle;
+import DefectRepairing.ColumnarFile;
 public class classifier {
 
 	
@@ -80,7 +90,15 @@ public class classifier {
 		return false;
 	}
 	
-	public static void main(String args[]) throws FileNotFoundException, IOException {
+	public static void main(String args[]) throws FileNotFoundException, IOException, InterruptedException {
+		if(args.length>0 && args[0].equals("batch")){
+			TraceParser.Path_to_d4j=args[5];
+			int status=batch(args[1], args[2], Arrays.asList(args).subList(7, args.length), args[3], args[4],
+					Integer.parseInt(args[6]));
+			if(status!=0)
+				System.exit(status);
+			return;
+		}
 		boolean verbose=false;
 		String project,bugid,patch_no;
 		String tracedir=args[3];
@@ -101,8 +119,49 @@ public class classifier {
 		
 	}
 	
+	/*
+	 * batch <project> <bugid> <tracedir> <patchdir> <path to d4j> <threads> <patch>...
+	 * TestCase.TraceParser run of the patches of a bug on <threads> threads, with the buggy traces
+	 * read and compared once for all of them (TraceParser.BuggyTraces). Prints "<patch> <verdict>"
+	 * per patch, in the order given, and "<patch> error" for those that failed.
+	 */
+	public static int batch(final String project, final String bugid, List<String> patches, final String tracedir,
+			final String patchdir, int threads) throws InterruptedException {
+		final TraceParser.BuggyTraces buggy = new TraceParser.BuggyTraces();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Map<String, Future<String>> verdicts = new LinkedHashMap<String, Future<String>>();
+		for (final String patch_no : patches) {
+			verdicts.put(patch_no, executor.submit(new Callable<String>() {
+				public String call() throws Exception {
+					ByteArrayOutputStream buf = new ByteArrayOutputStream();
+					TraceParser.run(project, bugid, patch_no, tracedir, patchdir, false, buggy,
+							new PrintStream(buf, true));
+					for (String line : buf.toString().split("\n"))
+						if (line.equals("Correct") || line.equals("Incorrect"))
+							return line;
+					return "error";
+				}
+			}));
+		}
+		executor.shutdown();
+		int status = 0;
+		for (Map.Entry<String, Future<String>> e : verdicts.entrySet()) {
+			String verdict;
+			try {
+				verdict = e.getValue().get();
+			} catch (ExecutionException x) {
+				x.getCause().printStackTrace();
+				verdict = "error";
+			}
+			if (verdict.equals("error"))
+				status = 1;
+			System.out.println(e.getKey() + " " + verdict);
+		}
+		return status;
+	}
+	
 	public static void run(String project,String bugid,String patch_no,String tracedir,String patchdir,boolean verbose) throws FileNotFoundException, IOException{
-                ModeEnum mode = Spectrum.Mode.ModeEnum.LCS_simple;
+                ModeEnum mode = TraceParser.LCS_MODE;
                 tracedir=new File(tracedir, project+bugid+"b_"+patch_no).toString();
                 
                 List<String>l_buggy=new ArrayList<String>();
@@ -333,14 +392,14 @@ public class classifier {
                         if(gen.contains(j))
                                 gen.remove(j);
                 }
-              jPickle.dump(pass, patch_no+"/pass");
-              jPickle.dump(fail, patch_no+"/fail");
-              jPickle.dump(gen, patch_no+"/gen");
-              jPickle.dump(dis, patch_no+"/dis");
-              jPickle.dump(dis_2, patch_no+"/dis_2");
-              jPickle.dump(dict, patch_no+"/dict");
-              jPickle.dump(length_array, patch_no+"/Length_array");
-              jPickle.dump(LCS_array, patch_no+"/LCS_array");  
+              ColumnarFile.dump(pass, patch_no+"/pass");
+              ColumnarFile.dump(fail, patch_no+"/fail");
+              ColumnarFile.dump(gen, patch_no+"/gen");
+              ColumnarFile.dump(dis, patch_no+"/dis");
+              ColumnarFile.dump(dis_2, patch_no+"/dis_2");
+              ColumnarFile.dump(dict, patch_no+"/dict");
+              ColumnarFile.dump(length_array, patch_no+"/Length_array");
+              ColumnarFile.dump(LCS_array, patch_no+"/LCS_array");  
                 
                 double dis_pass=0,dis_fail=0,w_pass=0,w_fail=0;
                 if(pass.size()!=0&&fail.size()!=0){
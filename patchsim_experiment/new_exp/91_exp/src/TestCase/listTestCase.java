@@ -122,15 +122,12 @@ public class listTestCase {
 
 	
 	
-	public static void main(String args[]) {
+	public static void main(String args[]) throws Exception {
 		boolean verboset = false;
 		
 		String DirPath = args[0];
 		String TraceFilet = args[1];
 
-		
-
-		final String TraceFile = TraceFilet;
 		final boolean verbose = verboset;
 		List<String> filelist = new ArrayList<String>();
 
@@ -140,53 +137,24 @@ public class listTestCase {
 		else
 			getFilelist(DirPath, filelist);
 
-		ASTParser parser = ASTParser.newParser(AST.JLS3);
-		final AST ast = AST.newAST(AST.JLS3);
-
-		int TotalNum = filelist.size();
-		int CurNum = 0;
-
-		for (final String FilePath : filelist)
-
-		{
-			
-			System.out.println(FilePath);
-			source = readFileToString(FilePath);
-
-			parser.setSource(source.toCharArray());
-			parser.setKind(ASTParser.K_COMPILATION_UNIT);
-
-			final CompilationUnit cu = (CompilationUnit) parser.createAST(null);
-			
-			
-			
-			cu.accept(new ASTVisitor() {
-
-				
-				
-				public boolean visit(TypeDeclaration node) {
-					String ClassName;
-					ClassName=node.getName().toString();
-					if (node.isInterface())
-						return false;
-					else {
-						MethodDeclaration[] l=node.getMethods();
-						for(MethodDeclaration mthd : l){
-							outputBuffer+=ClassName+"::"+mthd.getName()+"\n";
-						}
-						return true;
-						
-					}
-					
-				}
-
-
-				
-
-			
-
-			});
-			
+		// the declarations of the whole directory come from the persisted SourceIndex, which
+		// parses only the files it has not seen
+		List<File> files = new ArrayList<File>();
+		for (String FilePath : filelist)
+			files.add(new File(FilePath));
+		Map<File, SourceIndex.Unit> units = SourceIndex.units(new File(DirPath), files);
+
+		for (File f : files) {
+			System.out.println(f.getPath());
+			SourceIndex.Unit unit = units.get(f);
+			for (int i = 0; i < unit.types.size(); i++) {
+				SourceIndex.Type type = unit.types.get(i);
+				if (!type.listed)
+					continue;
+				for (SourceIndex.Method mthd : unit.methods)
+					if (mthd.type == i)
+						outputBuffer += type.name + "::" + mthd.name + "\n";
+			}
 		}
 		writeStringToFile(TraceFilet,outputBuffer);
 	}
@@ -0,0 +1,290 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/*
+ * Applies a unified diff to a workspace in memory and compiles only the changed compilation
+ * units against the classes of that workspace, so that a patched version is an overlay of a
+ * few files instead of a second checkout and full compile.
+ *
+ * usage: java PatchOverlay <workspace> <patch file> <overlay dir> <classpath> [-p<n>] [-R]
+ *                          [javac options...]
+ * Like "patch -p<n> [-R] -d <workspace>" (n defaults to 1), hunks may apply at an offset and with
+ * up to two lines of context ignored at either end. The workspace is left untouched: the
+ * patched files are written to <overlay dir>/src under their workspace paths, and the classes
+ * of the patched .java files, compiled against <classpath>, to <overlay dir>/classes.
+ * Putting <overlay dir>/classes in front of the workspace classes gives the patched version.
+ * Exits with 1 when a hunk does not apply or the compile fails, with 2 for patches it does
+ * not handle (created or deleted files).
+ */
+public class PatchOverlay {
+	static final Pattern HUNK = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*");
+	static final int MAX_FUZZ = 2;
+	static final Charset UTF8 = Charset.forName("UTF-8"), LATIN1 = Charset.forName("ISO-8859-1");
+
+	static class Hunk {
+		int oldStart;
+		List<String> oldLines = new ArrayList<String>(), newLines = new ArrayList<String>();
+		// leading and trailing context, which fuzz may ignore
+		int head, tail;
+	}
+
+	static class FilePatch {
+		String path;
+		List<Hunk> hunks = new ArrayList<Hunk>();
+	}
+
+	static class Unsupported extends Exception {
+		Unsupported(String msg) {
+			super(msg);
+		}
+	}
+
+	static String strip(String name, int p) {
+		int tab = name.indexOf('\t');
+		if (tab >= 0)
+			name = name.substring(0, tab);
+		name = name.trim();
+		for (int i = 0; i < p; i++) {
+			int slash = name.indexOf('/');
+			if (slash < 0)
+				break;
+			name = name.substring(slash + 1);
+		}
+		return name;
+	}
+
+	static List<FilePatch> parse(File patch, int p, boolean reverse) throws IOException, Unsupported {
+		List<FilePatch> files = new ArrayList<FilePatch>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(patch), LATIN1));
+		try {
+			FilePatch f = null;
+			Hunk h = null;
+			int oldLeft = 0, newLeft = 0;
+			String from = null;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (h != null && (oldLeft > 0 || newLeft > 0)) {
+					char c = line.length() == 0 ? ' ' : line.charAt(0);
+					String text = line.length() == 0 ? "" : line.substring(1);
+					if (reverse && (c == '-' || c == '+'))
+						c = c == '-' ? '+' : '-';
+					if (c == ' ') {
+						h.oldLines.add(text);
+						h.newLines.add(text);
+						oldLeft--;
+						newLeft--;
+						if (h.oldLines.size() == h.head + 1 && h.newLines.size() == h.head + 1 && noChangeYet(h))
+							h.head++;
+						h.tail++;
+					} else if (c == '-') {
+						h.oldLines.add(text);
+						oldLeft--;
+						h.tail = 0;
+					} else if (c == '+') {
+						h.newLines.add(text);
+						newLeft--;
+						h.tail = 0;
+					} else if (c != '\\')
+						throw new IOException("malformed hunk in " + patch + ": " + line);
+					continue;
+				}
+				if (line.startsWith("--- ")) {
+					from = line.substring(4);
+				} else if (line.startsWith("+++ ") && from != null) {
+					String to = line.substring(4);
+					if (to.startsWith("/dev/null") || from.startsWith("/dev/null"))
+						throw new Unsupported("created or deleted file in " + patch);
+					f = new FilePatch();
+					f.path = strip(reverse ? from : to, p);
+					files.add(f);
+					from = null;
+				} else if (line.startsWith("\\")) {
+					// "\ No newline at end of file" after the last hunk line
+				} else {
+					Matcher m = HUNK.matcher(line);
+					if (m.matches() && f != null) {
+						h = new Hunk();
+						int o = reverse ? 3 : 1, n = reverse ? 1 : 3;
+						h.oldStart = Integer.parseInt(m.group(o));
+						oldLeft = m.group(o + 1) == null ? 1 : Integer.parseInt(m.group(o + 1));
+						newLeft = m.group(n + 1) == null ? 1 : Integer.parseInt(m.group(n + 1));
+						f.hunks.add(h);
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return files;
+	}
+
+	static boolean noChangeYet(Hunk h) {
+		return h.oldLines.equals(h.newLines);
+	}
+
+	static boolean matches(List<String> lines, int at, List<String> want, int from, int to) {
+		if (at < 0 || at + (to - from) > lines.size())
+			return false;
+		for (int i = from; i < to; i++)
+			if (!lines.get(at + i - from).equals(want.get(i)))
+				return false;
+		return true;
+	}
+
+	/* applies the hunks in order; returns false when one of them does not apply */
+	static boolean apply(List<String> lines, List<Hunk> hunks) {
+		int offset = 0, floor = 0;
+		for (Hunk h : hunks) {
+			boolean applied = false;
+			for (int fuzz = 0; fuzz <= MAX_FUZZ && !applied; fuzz++) {
+				int head = Math.min(fuzz, h.head), tail = Math.min(fuzz, h.tail);
+				int from = head, to = h.oldLines.size() - tail;
+				if (to < from)
+					break;
+				// a hunk without old lines inserts after line oldStart
+				int base = h.oldLines.size() == 0 ? h.oldStart : Math.max(0, h.oldStart - 1);
+				int expected = base + offset + head;
+				// nearest position at or after the end of the previous hunk
+				for (int d = 0; d <= lines.size() && !applied; d++) {
+					for (int at : new int[] { expected - d, expected + d }) {
+						if (at < floor || !matches(lines, at, h.oldLines, from, to))
+							continue;
+						List<String> replacement = h.newLines.subList(head, h.newLines.size() - tail);
+						for (int i = from; i < to; i++)
+							lines.remove(at);
+						lines.addAll(at, replacement);
+						offset = at - (base + head);
+						offset += replacement.size() - (to - from);
+						floor = at + replacement.size();
+						applied = true;
+						break;
+					}
+				}
+			}
+			if (!applied)
+				return false;
+		}
+		return true;
+	}
+
+	static byte[] readBytes(File f) throws IOException {
+		byte[] data = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try {
+			int n = 0, r;
+			while (n < data.length && (r = in.read(data, n, data.length - n)) > 0)
+				n += r;
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	static Charset charset(byte[] data) {
+		try {
+			UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(data));
+			return UTF8;
+		} catch (CharacterCodingException e) {
+			return LATIN1;
+		}
+	}
+
+	/* the line terminator of a file, kept for the patched copy */
+	static String newline(String text) {
+		return text.contains("\r\n") ? "\r\n" : "\n";
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("usage: PatchOverlay <workspace> <patch file> <overlay dir> <classpath> [-p<n>] [-R] [javac options...]");
+			System.exit(2);
+		}
+		File workspace = new File(args[0]), patch = new File(args[1]), overlay = new File(args[2]);
+		String classpath = args[3];
+		int p = 1, opts = 4;
+		boolean reverse = false;
+		for (; opts < args.length; opts++) {
+			if (args[opts].startsWith("-p"))
+				p = Integer.parseInt(args[opts].substring(2));
+			else if (args[opts].equals("-R"))
+				reverse = true;
+			else
+				break;
+		}
+		List<FilePatch> files;
+		try {
+			files = parse(patch, p, reverse);
+		} catch (Unsupported e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		File src = new File(overlay, "src"), classes = new File(overlay, "classes");
+		classes.mkdirs();
+		List<String> sources = new ArrayList<String>();
+		Charset encoding = UTF8;
+		for (FilePatch f : files) {
+			File original = new File(workspace, f.path);
+			byte[] data = readBytes(original);
+			Charset cs = charset(data);
+			if (cs == LATIN1)
+				encoding = LATIN1;
+			String text = new String(data, cs);
+			String nl = newline(text);
+			boolean lastNewline = text.endsWith("\n");
+			List<String> lines = new ArrayList<String>(Arrays.asList(text.split("\r?\n", -1)));
+			if (lastNewline)
+				lines.remove(lines.size() - 1);
+			if (!apply(lines, f.hunks)) {
+				System.err.println("a hunk of " + patch + " does not apply to " + f.path);
+				System.exit(1);
+			}
+			StringBuilder out = new StringBuilder();
+			for (int i = 0; i < lines.size(); i++) {
+				out.append(lines.get(i));
+				if (i < lines.size() - 1 || lastNewline)
+					out.append(nl);
+			}
+			File patched = new File(src, f.path);
+			patched.getParentFile().mkdirs();
+			OutputStream o = new FileOutputStream(patched);
+			try {
+				o.write(out.toString().getBytes(cs));
+			} finally {
+				o.close();
+			}
+			if (f.path.endsWith(".java"))
+				sources.add(patched.getPath());
+		}
+		if (sources.isEmpty())
+			return;
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			System.err.println("no system java compiler, run PatchOverlay with a JDK");
+			System.exit(1);
+		}
+		List<String> javac = new ArrayList<String>(Arrays.asList("-d", classes.getPath(), "-cp", classpath,
+				"-implicit:none", "-nowarn", "-encoding", encoding.name()));
+		javac.addAll(Arrays.asList(args).subList(opts, args.length));
+		javac.addAll(sources);
+		int code = compiler.run(null, System.err, System.err, javac.toArray(new String[0]));
+		System.exit(code == 0 ? 0 : 1);
+	}
+}
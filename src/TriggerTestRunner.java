@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/*
+ * Runs tests in one JVM, as "defects4j test -t" does them one per JVM.
+ *
+ * usage: java TriggerTestRunner <result file> <timeout seconds> <class>[::<method>]...
+ * The tests are run in order, each as a JUnit request of its own (JUnit 3 and 4 tests alike),
+ * and given a line in the result file as they finish:
+ *   PASS<tab><test>
+ *   FAIL<tab><test><tab><first line of the first failure>
+ * A test that cannot be loaded, matches no method or runs past the timeout fails. Exits with 0
+ * when all tests pass, with 1 otherwise.
+ *
+ * As in TestCase.TestRunner, each test is loaded from the class path by a child-first class
+ * loader of its own, so static state is as fresh as in a JVM per test, and runs on a worker
+ * thread. A test thread that times out cannot be stopped safely: it is left behind, the tests
+ * that follow get a new one, and the exit at the end ends it.
+ */
+public class TriggerTestRunner {
+	/* child-first, with JUnit from the parent so that every loader sees the same Request/Result */
+	static class TestClassLoader extends URLClassLoader {
+		static final String[] shared = { "java.", "javax.", "sun.", "jdk.", "org.junit.", "junit.", "org.hamcrest." };
+
+		TestClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			for (String p : shared)
+				if (name.startsWith(p))
+					return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					try {
+						c = findClass(name);
+					} catch (ClassNotFoundException e) {
+						c = getParent().loadClass(name);
+					}
+				}
+				if (resolve)
+					resolveClass(c);
+				return c;
+			}
+		}
+	}
+
+	static URL[] urls;
+
+	static URLClassLoader loader() {
+		return new TestClassLoader(urls, TriggerTestRunner.class.getClassLoader());
+	}
+
+	static ExecutorService worker() {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "test");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	static String firstLine(String s) {
+		if (s == null)
+			return "";
+		int nl = s.indexOf('\n');
+		return (nl < 0 ? s : s.substring(0, nl)).replace('\t', ' ').trim();
+	}
+
+	/* null when the test passes, otherwise why it did not */
+	static String run(String test, ClassLoader loader) {
+		int sep = test.indexOf("::");
+		try {
+			Class<?> c = Class.forName(sep < 0 ? test : test.substring(0, sep), false, loader);
+			Thread.currentThread().setContextClassLoader(loader);
+			Request request = sep < 0 ? Request.aClass(c) : Request.method(c, test.substring(sep + 2));
+			Result result = new JUnitCore().run(request);
+			if (result.getRunCount() == 0)
+				return "no test matches " + test;
+			if (result.wasSuccessful())
+				return null;
+			Failure f = result.getFailures().get(0);
+			return f.getException() == null ? firstLine(f.getMessage()) : firstLine(f.getException().toString());
+		} catch (Throwable t) {
+			return firstLine(t.toString());
+		}
+	}
+
+	/* run(test) in a fresh loader, on the worker thread, within timeout seconds */
+	static ExecutorService executor = worker();
+
+	static String run(final String test, long timeout) throws IOException, InterruptedException {
+		final URLClassLoader loader = loader();
+		try {
+			Future<String> f = executor.submit(new Callable<String>() {
+				public String call() {
+					return run(test, loader);
+				}
+			});
+			try {
+				return f.get(timeout, TimeUnit.SECONDS);
+			} catch (TimeoutException e) {
+				executor.shutdownNow();
+				executor = worker();
+				return "timeout after " + timeout + " s";
+			} catch (ExecutionException e) {
+				return firstLine(e.getCause().toString());
+			}
+		} finally {
+			loader.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("usage: TriggerTestRunner <result file> <timeout seconds> <class>[::<method>]...");
+			System.exit(2);
+		}
+		List<URL> path = new ArrayList<URL>();
+		for (String s : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (s.length() != 0)
+				path.add(new File(s).toURI().toURL());
+		}
+		urls = path.toArray(new URL[0]);
+		long timeout = Long.parseLong(args[1]);
+		PrintWriter out = new PrintWriter(new FileWriter(args[0]));
+		boolean passed = true;
+		try {
+			for (int i = 2; i < args.length; i++) {
+				String failure = run(args[i], timeout);
+				if (failure == null)
+					out.println("PASS\t" + args[i]);
+				else {
+					out.println("FAIL\t" + args[i] + "\t" + failure);
+					passed = false;
+				}
+				out.flush();
+			}
+		} finally {
+			out.close();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+}
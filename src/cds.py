@@ -0,0 +1,137 @@
+import fcntl
+import hashlib
+import logging
+import os
+import re
+import subprocess
+import zipfile
+from os.path import join, exists, getsize, isdir, relpath
+
+logger = logging.getLogger("cds")
+
+MIN_JAVA = 13  # -XX:ArchiveClassesAtExit
+QUIET = '-Xshare:auto -Xlog:cds*=off -Xlog:class+path=off'
+
+
+def java_version(java='java'):
+    # major version of `java -version`: 8 for 1.8.0_292, 17 for 17.0.2
+    try:
+        out = subprocess.run([java, '-version'], stdout=subprocess.PIPE,
+                             stderr=subprocess.STDOUT).stdout.decode()
+    except OSError:
+        return 0
+    m = re.search(r'version "(\d+)(?:\.(\d+))?', out)
+    if m is None:
+        return 0
+    major = int(m.group(1))
+    if major == 1 and m.group(2) is not None:
+        major = int(m.group(2))
+    return major
+
+
+def with_options(env, options):
+    env = dict(env)
+    if env.get('JAVA_TOOL_OPTIONS'):
+        options = env['JAVA_TOOL_OPTIONS'] + ' ' + options
+    env['JAVA_TOOL_OPTIONS'] = options
+    return env
+
+
+class CDSArchives:
+    """
+    Dynamic AppCDS archives of the child JVMs of a bug, one per target class
+    path, shared by the patches of the bug:
+      <root>/<project>-<bug_id>-<hash of java version and class path>.jsa
+    An archive is written by a training run, a JVM started with
+    -XX:ArchiveClassesAtExit, and mapped by the later JVMs of that class
+    path. The options reach the JVMs through JAVA_TOOL_OPTIONS, so those the
+    zest scripts start get them as well. The JVM checks the jars against the
+    archive and, with -Xshare:auto, runs without it when they differ. The
+    JDK only writes an archive when the class path of the training JVM has
+    no non-empty directory, so the JVMs run on classpath(cp), where the
+    class directories are replaced by jars of their content:
+      <root>/<project>-<bug_id>-<hash of the content>.jar
+    The jars are shared by the patches of the bug like the archives. When
+    training writes no archive all the same, <archive>.failed keeps the bug
+    from training again. Needs java >= MIN_JAVA on the PATH.
+    """
+
+    def __init__(self, root, project, bug_id):
+        self.root = root
+        self.project = project
+        self.bug_id = bug_id
+        os.makedirs(root, exist_ok=True)
+        self.version = java_version()
+        self.jars = dict()
+        self.enabled = self.version >= MIN_JAVA
+        if not self.enabled:
+            logger.warning('java {} cannot write CDS archives, running without'.
+                           format(self.version))
+
+    def jar(self, d):
+        # jar of the files in directory d, made once for their content
+        files = []
+        for src_dir, dirs, names in os.walk(d):
+            dirs.sort()
+            files += [join(src_dir, name) for name in sorted(names)]
+        h = hashlib.sha1()
+        for f in files:
+            h.update(relpath(f, d).encode() + b'\0')
+            with open(f, 'rb') as fp:
+                h.update(hashlib.sha1(fp.read()).digest())
+        jar = join(self.root, '{}-{}-{}.jar'.format(self.project, self.bug_id,
+                                                  h.hexdigest()[:16]))
+        with open(jar + '.lock', 'w') as lock:
+            fcntl.flock(lock, fcntl.LOCK_EX)
+            if not exists(jar):
+                tmp = '{}.{}.tmp'.format(jar, os.getpid())
+                with zipfile.ZipFile(tmp, 'w', zipfile.ZIP_DEFLATED) as z:
+                    for f in files:
+                        z.write(f, relpath(f, d))
+                os.rename(tmp, jar)
+        return jar
+
+    def classpath(self, cp):
+        # cp with its non-empty directories as jars
+        if not self.enabled:
+            return cp
+        if cp not in self.jars:
+            self.jars[cp] = ':'.join(
+                self.jar(e) if isdir(e) and len(os.listdir(e)) > 0 else e
+                for e in cp.split(':'))
+        return self.jars[cp]
+
+    def archive(self, cp):
+        h = hashlib.sha1('{}\0{}'.format(self.version, cp).encode()).hexdigest()
+        return join(self.root, '{}-{}-{}.jsa'.format(self.project, self.bug_id, h[:16]))
+
+    def trained(self, cp):
+        archive = self.archive(cp)
+        return not self.enabled or exists(archive) or exists(archive + '.failed')
+
+    def env(self, cp, env=os.environ):
+        # environment of a JVM on cp: with its archive, if there is one
+        archive = self.archive(cp)
+        if not self.enabled or not exists(archive):
+            return env
+        return with_options(env, '-XX:SharedArchiveFile={} {}'.format(archive, QUIET))
+
+    def train(self, cp, run):
+        # run(env) starts the training JVM; one per class path at a time,
+        # the others wait for its archive
+        archive = self.archive(cp)
+        with open(archive + '.lock', 'w') as lock:
+            fcntl.flock(lock, fcntl.LOCK_EX)
+            if self.trained(cp):
+                return
+            tmp = '{}.{}.tmp'.format(archive, os.getpid())
+            run(with_options(os.environ, '-XX:ArchiveClassesAtExit={} {}'.
+                             format(tmp, QUIET)))
+            if exists(tmp) and getsize(tmp) > 0:
+                os.rename(tmp, archive)
+                logger.info('CDS archive {} for {}'.format(archive, cp))
+            else:
+                logger.warning('No CDS archive written for {}'.format(cp))
+                if exists(tmp):
+                    os.unlink(tmp)
+                open(archive + '.failed', 'w').close()
@@ -0,0 +1,171 @@
+import json
+import logging
+import os
+import signal
+import socket
+import sys
+import threading
+import time
+import traceback
+
+# A resident poracle: the daemon loads main and poracle once and serves runs
+# over a Unix socket, each in a process forked from it, so a run starts with
+# its modules imported. With --preload-ml the learning-based predictor is
+# imported before forking too; otherwise a run loads it when it needs it.
+# That, and the java tools below, is all a run gets from the daemon: what a
+# run starts, its JVMs included, ends with it. What is warm across runs is on
+# disk: --workspace-cache for the workspaces, --cds for the JVM class data.
+#
+#   poracle --daemon SOCKET [--preload-ml]
+#   poracle --connect SOCKET <the arguments of a poracle run>
+#
+# A request is a line of JSON with the arguments, working directory and
+# environment of the client, which replaces that of the daemon for the run.
+# The run's stdout and stderr go back over the connection, followed by EXIT
+# and the exit code; the client prints the output and exits with that code. A run whose client goes away (killed by
+# a timeout, say) is killed with its child processes. The java tools are
+# compiled once, into SOCKET.tools.
+
+logger = logging.getLogger("daemon")
+EXIT = b'\0exit '
+
+
+def alive(path):
+    # whether a daemon answers on path; a socket file left by one that died
+    # refuses the connection
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    try:
+        sock.connect(path)
+        return True
+    except OSError:
+        return False
+    finally:
+        sock.close()
+
+
+def reap():
+    try:
+        while os.waitpid(-1, os.WNOHANG)[0] != 0:
+            pass
+    except ChildProcessError:
+        pass
+
+
+def watch(conn):
+    # the client sends nothing after its request: EOF means it is gone
+    try:
+        while conn.recv(4096):
+            pass
+    except OSError:
+        pass
+    os.killpg(os.getpgid(0), signal.SIGKILL)
+
+
+def handle(conn, tools_dir, run_main):
+    start_time = time.time()
+    os.setpgid(0, 0)
+    code = 1
+    try:
+        line = conn.makefile('rb').readline()
+        if not line:
+            # alive() of a client
+            os._exit(0)
+        request = json.loads(line.decode())
+        os.chdir(request['cwd'])
+        os.environ.clear()
+        os.environ.update(request.get('env', {}))
+        os.dup2(conn.fileno(), 1)
+        os.dup2(conn.fileno(), 2)
+        sys.stdout.reconfigure(line_buffering=True)
+        threading.Thread(target=watch, args=(conn,), daemon=True).start()
+        # main.run sets up the logging of the run
+        logging.getLogger().handlers = []
+        args, poracle_config = run_main.parse_args(request['argv'])
+        poracle_config['tools_dir'] = tools_dir
+        code = run_main.run(args, poracle_config, start_time)
+    except SystemExit as e:
+        code = e.code if isinstance(e.code, int) else 1
+    except BaseException:
+        traceback.print_exc()
+    finally:
+        sys.stdout.flush()
+        sys.stderr.flush()
+        try:
+            conn.sendall(EXIT + '{}\n'.format(code).encode())
+        finally:
+            os._exit(0)
+
+
+def serve(path, preload_ml=False):
+    import main as run_main
+    if preload_ml:
+        import pandas
+        import sklearn.preprocessing
+        import sklearn.model_selection
+        import tensorflow.python.keras.models
+        import tensorflow.python.keras.layers
+    tools_dir = os.path.abspath(path) + '.tools'
+    if os.path.exists(path):
+        if alive(path):
+            logger.error('a poracle daemon already serves {}'.format(path))
+            sys.exit(1)
+        os.unlink(path)
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    sock.bind(path)
+    sock.listen(16)
+    # wake up now and then to reap finished runs
+    sock.settimeout(1)
+    logger.info('poracle daemon on {}'.format(path))
+    while True:
+        try:
+            conn, _ = sock.accept()
+        except socket.timeout:
+            reap()
+            continue
+        conn.settimeout(None)
+        pid = os.fork()
+        if pid == 0:
+            sock.close()
+            handle(conn, tools_dir, run_main)
+        conn.close()
+        reap()
+
+
+def connect(path, argv):
+    sock = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+    sock.connect(path)
+    request = {'argv': argv, 'cwd': os.getcwd(), 'env': dict(os.environ)}
+    sock.sendall((json.dumps(request) + '\n').encode())
+    out = sys.stdout.buffer
+    tail = b''
+    while True:
+        data = sock.recv(65536)
+        if not data:
+            break
+        if EXIT[:1] in data or tail:
+            tail += data
+        else:
+            out.write(data)
+            out.flush()
+    sock.close()
+    i = tail.rfind(EXIT)
+    if i < 0:
+        # the run died without an exit code
+        out.write(tail)
+        return 1
+    out.write(tail[:i])
+    out.flush()
+    return int(tail[i + len(EXIT):].split()[0])
+
+
+def main(argv):
+    logging.basicConfig(level=logging.INFO,
+                        format='%(levelname)-8s %(name)-15s %(message)s')
+    if len(argv) < 2:
+        print('usage: poracle --daemon SOCKET [--preload-ml] | '
+              'poracle --connect SOCKET ARGS...', file=sys.stderr)
+        return 2
+    if argv[0] == '--daemon':
+        serve(argv[1], '--preload-ml' in argv[2:])
+        return 0
+    return connect(argv[1], argv[2:])
@@ -11,7 +11,6 @@ import json
 from poracle import Poracle, PoracleException
 import statistics
 import time
-import tensorflow as tf
 
 
 logger = logging.getLogger("main")
@@ -34,13 +33,7 @@ def copy(src_dir_root, dst_dir_root):
                      join(dst_dir_root, dir))
 
 
-if __name__ == '__main__':
-    start_time = time.time()
-
-    def rm_force(action, name, exc):
-        os.chmod(name, stat.S_IREAD)
-        shutil.rmtree(name)
-
+def parse_args(argv):
     parser = argparse.ArgumentParser('poracle')
     parser.add_argument('config_file', metavar='CONFIG_FILE', help='config file')
 
@@ -124,6 +117,38 @@ if __name__ == '__main__':
                         default='.poracle', help='work dir')
     parser.add_argument('--deltas-dir', metavar='DELTAS_DIR', type=str,
                         default='deltas', help='deltas dir')
+    parser.add_argument('--workspace-cache', metavar='CACHE_DIR', type=str,
+                        default=None,
+                        help='reuse compiled workspaces of the same bug from \
+                        CACHE_DIR (default: off)')
+    parser.add_argument('--patch-overlay', action='store_true',
+                        help='apply the patch in memory and compile only the \
+                        patched sources over the buggy classes \
+                        (default: %(default)s)')
+    parser.add_argument('--overlay-workspaces', action='store_true',
+                        help='--patch-overlay for the fixed version too, on \
+                        the buggy workspace linked from --workspace-cache \
+                        (default: %(default)s)')
+    parser.add_argument('--harness-jar', action='store_true',
+                        help='compile only the main sources of the \
+                        workspaces and run the JQF drivers and trigger \
+                        tests from a jar built once against the buggy \
+                        classes (default: %(default)s)')
+    parser.add_argument('--stage-workers', metavar='NUM', type=int,
+                        default=1,
+                        help='stages before fuzzing run at once, such as the \
+                        buggy and patched checkouts (default: %(default)s)')
+    parser.add_argument('--speculative-fix', action='store_true',
+                        help='prepare the fixed version in the background \
+                        once the buggy version is built rather than only \
+                        when validating (default: %(default)s)')
+    parser.add_argument('--d4j-patch-test', action='store_true',
+                        help='check the patch with one defects4j test per \
+                        trigger test instead of all of them in one JVM \
+                        (default: %(default)s)')
+    parser.add_argument('--cds', metavar='CDS_DIR', type=str, default=None,
+                        help='run zest and zest-repro with AppCDS archives \
+                        kept in CDS_DIR, java >= 13 only (default: off)')
     parser.add_argument('--verbose', action='store_true',
                         help='verbose printout (default: %(default)s)')
     parser.add_argument('--quiet', action='store_true',
@@ -131,7 +156,7 @@ if __name__ == '__main__':
     parser.add_argument('--use-opad', action='store_true',
                         help='use opad mode (default: %(default)s)')
 
-    args = parser.parse_args()
+    args = parser.parse_args(argv)
 
     poracle_config = dict()
     poracle_config['epsilon_for_same'] = args.epsilon_for_same
@@ -156,9 +181,26 @@ if __name__ == '__main__':
     poracle_config['INCONS_THRESHOLD'] = args.inconsistency_threshold
     poracle_config['PROGRESS_THRESHOLD'] = args.progress_ratio_threshold
     poracle_config['use_opad'] = args.use_opad
+    poracle_config['workspace_cache'] = os.path.abspath(args.workspace_cache) \
+        if args.workspace_cache is not None else None
+    poracle_config['patch_overlay'] = args.patch_overlay or args.overlay_workspaces
+    poracle_config['overlay_workspaces'] = args.overlay_workspaces
+    poracle_config['harness_jar'] = args.harness_jar
+    poracle_config['stage_workers'] = args.stage_workers
+    poracle_config['speculative_fix'] = args.speculative_fix
+    poracle_config['d4j_patch_test'] = args.d4j_patch_test
+    poracle_config['cds_dir'] = os.path.abspath(args.cds) \
+        if args.cds is not None else None
 
     if len(args.skip) > 0:
         args.keep_workdir = True
+    return args, poracle_config
+
+
+def run(args, poracle_config, start_time):
+    def rm_force(action, name, exc):
+        os.chmod(name, stat.S_IREAD)
+        shutil.rmtree(name)
 
     poracle_workdir = join(os.getcwd(), args.work_dir)
     if args.keep_workdir:
@@ -174,7 +216,7 @@ if __name__ == '__main__':
     FORMAT = logging.Formatter('%(levelname)-8s %(name)-15s %(message)s')
     if args.quiet:
         rootLogger.setLevel(logging.ERROR)
-        tf.get_logger().setLevel(logging.ERROR)
+        logging.getLogger('tensorflow').setLevel(logging.ERROR)
     elif args.log is not None:
         log_level = getattr(logging, args.log, None)
         rootLogger.setLevel(log_level)
@@ -218,6 +260,15 @@ if __name__ == '__main__':
         statistics.data['total_time'] = elapsed_time
         statistics.save()
         if code is not None:
-            exit(0)
+            return 0
         else:
-            exit(1)
+            return 1
+
+
+if __name__ == '__main__':
+    if len(sys.argv) > 1 and sys.argv[1] in ['--daemon', '--connect']:
+        import daemon
+        exit(daemon.main(sys.argv[1:]))
+    start_time = time.time()
+    args, poracle_config = parse_args(sys.argv[1:])
+    exit(run(args, poracle_config, start_time))
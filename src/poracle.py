@@ -1,9 +1,11 @@
+import fcntl
 import logging
 import subprocess
 import os
 import shutil
+import signal
 from os import chmod, walk
-from os.path import join, isdir, isfile, exists, basename
+from os.path import join, isdir, isfile, exists, basename, relpath, dirname
 from shutil import copyfile
 import sys
 import tempfile
@@ -15,20 +17,19 @@ from watchdog.events import FileSystemEventHandler
 import threading
 import time
 import stat
-import pandas as pd
-import numpy as np
-from sklearn.preprocessing import MinMaxScaler
-from sklearn.model_selection import train_test_split
-from tensorflow.python.keras.models import Sequential
-from tensorflow.python.keras.layers import Dense
 from enum import Enum
 import statistics as st
 from typing import Dict
 import random
+from workspace_cache import WorkspaceCache, deltas_hash, remove_tree
+from stages import StageGraph
+from cds import CDSArchives
 
 logger = logging.getLogger("poracle")
 out_log_file = 'OUT.log'
 in_log_file = 'IN.log'
+# seconds a trigger test may run in TriggerTestRunner before it fails
+TRIGGER_TEST_TIMEOUT = 300
 
 
 class Judge(Enum):
@@ -148,7 +149,54 @@ class Poracle:
         self.model_dir = self.prep_dir(join(workdir, 'model'))
         self.input_dir = self.prep_dir(join(workdir, 'input'))
 
+        # workspaces restored from the cache; those checked out, then those
+        # with deltas applied, which are stored after their first compile
+        self.workspace_cache = None
+        if config.get('workspace_cache') is not None:
+            self.workspace_cache = WorkspaceCache(config['workspace_cache'])
+            self.deltas_hash = deltas_hash(
+                join(self.deltas_dir, project, '{}_bug{}'.format(project, bug_id)))
+        self.restored = set()
+        self.checked_out = dict()
+        self.to_store = dict()
+
+        # with patch_overlay the patched version is the buggy one with the
+        # classes of the patched sources in front, see make_overlay; with
+        # overlay_workspaces the fixed version is too, and a cached buggy
+        # workspace is linked rather than copied, as the base of both
+        self.patch_overlay = config.get('patch_overlay', False)
+        self.fix_overlay = config.get('overlay_workspaces', False)
+        self.patch_overlay_dir = join(workdir, 'overlay', 'patch')
+        self.fix_overlay_dir = join(workdir, 'overlay', 'fix')
+        self.fix_overlay_ready = False
+
+        self.tool_lock = threading.Lock()
+
+        # with harness_jar the workspaces compile their main sources only,
+        # and the JQF_* drivers and trigger tests go into this jar, first on
+        # every class path
+        self.harness = config.get('harness_jar', False)
+        self.harness_jar = None
+
+        # AppCDS archives of the zest and zest-repro JVMs, see cds_env
+        self.cds = None
+        if config.get('cds_dir') is not None:
+            self.cds = CDSArchives(config['cds_dir'], project, bug_id)
+
+        # the fixed version, prepared in the background by start_fix
+        self.fix_thread = None
+        self.fix_proc = None
+        self.fix_times = dict()
+        self.fix_error = None
+        self.fix_ready = False
+
     def __call__(self):
+        try:
+            return self.evaluate()
+        finally:
+            self.discard_fix()
+
+    def evaluate(self):
         self.diff_output_found = False
         judges = []
         matches = []
@@ -157,46 +205,14 @@ class Poracle:
         # To make the system more deterministic, we start with a fixed seed
         random.seed(0)
 
-        if 'CHECKOUT_BUGGY' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Check out (buggy) {} {}'.format(self.project, self.bug_id))
-            code = self.checkout_buggy(self.project, self.bug_id)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['CHECKOUT_BUGGY'] = elapsed_time
-            if code != 0:
-                raise PoracleException('check-out-buggy failed')
-
-        if 'DELTA_BUGGY' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Apply deltas for buggy')
-            self.apply_deltas_root(self.project, self.bug_id,
-                                   self.dfj4_buggy_dir)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['DELTA_BUGGY'] = elapsed_time
-
-        if 'COMPILE_BUGGY' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Compile the buggy version')
-            code = self.compile(self.dfj4_buggy_dir)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['COMPILE_BUGGY'] = elapsed_time
-            if code != 0:
-                raise PoracleException('compiling buggy src failed')
-
-        if self.set_failing_tests() != 0:
-            raise PoracleException('Failed to retrieve a faling test')
-
-        assert self.failing_tests is not None
-        for ft in self.failing_tests:
-            logger.info('Failing test: {}'.format(ft))
-
-        self.set_test_units()
-        assert len(self.test_units) > 0
-        if not self.exists_JQF_classes(self.test_units):
-            raise PoracleException('A JQF class does not exist')
+        graph = self.stage_graph()
+        try:
+            graph.run(self.config.get('stage_workers', 1))
+        finally:
+            for name, elapsed_time in graph.durations().items():
+                if name in st.data['time']:
+                    st.data['time'][name] += elapsed_time
+            st.data['stages'] = graph.timing()
 
         self.set_buggy_project_cp()
         assert self.buggy_project_cp is not None
@@ -207,60 +223,10 @@ class Poracle:
         self.set_fix_project_cp()
         assert self.fix_project_cp is not None
 
-        if 'CHECKOUT_PATCH' not in self.config['skip']:
-            start_time = time.time()
-            code = self.checkout_patch(self.project, self.bug_id)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['CHECKOUT_PATCH'] += elapsed_time
-            if code != 0:
-                raise PoracleException('check-out failed (patch)')
-
-        if 'DELTA_PATCH' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Apply deltas for patch')
-            self.apply_deltas_root(self.project, self.bug_id,
-                                   self.dfj4_patch_dir)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['DELTA_PATCH'] += elapsed_time
-
-        if 'PATCH' not in self.config['skip']:
-            start_time = time.time()
-            patch_file = join(self.patches_dir, self.patch_id)
-            code = self.apply_patch(patch_file)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['PATCH'] += elapsed_time
-            if code != 0:
-                cmd = 'patch -p1 -d {}  < {}'.format(self.dfj4_patch_dir,
-                                                     patch_file)
-                raise PoracleException('apply-patch failed (cmd: {})'.format(cmd))
-        if 'COMPILE_PATCH' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Compile the patched version')
-            code = self.compile(self.dfj4_patch_dir)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['COMPILE_PATCH'] += elapsed_time
-            if code != 0:
-                raise PoracleException('compiling patch src failed')
-
-        patch_plausible = True
-        if 'PATCH_TEST' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Check whether the patch passes the test')
-            code = self.patch_test(self.dfj4_patch_dir)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['PATCH_TEST'] += elapsed_time
-            if code != 0:
-                logger.warning('patch test failed')
-                patch_plausible = False
-                judges.append(Judge.REJECT)
-                matches.append(Validate.MATCH)
-            else:
-                patch_plausible = True
+        patch_plausible = self.patch_plausible
+        if not patch_plausible:
+            judges.append(Judge.REJECT)
+            matches.append(Validate.MATCH)
 
         if patch_plausible:
             for test_unit in self.test_units:
@@ -323,6 +289,104 @@ class Poracle:
         logger.info('Results: {}'.format(test_results))
         return verdict
 
+    def stage_graph(self):
+        # the buggy and the patched workspaces are prepared side by side; the
+        # patch only waits for the buggy classes when it is an overlay, or
+        # for the buggy workspace to be cached when one will be
+        skip = self.config['skip']
+        g = StageGraph()
+        g.add('CHECKOUT_BUGGY', self.stage_checkout_buggy,
+              enabled='CHECKOUT_BUGGY' not in skip)
+        g.add('DELTA_BUGGY', self.stage_delta_buggy, ['CHECKOUT_BUGGY'],
+              enabled='DELTA_BUGGY' not in skip)
+        g.add('COMPILE_BUGGY', self.stage_compile_buggy, ['DELTA_BUGGY'],
+              enabled='COMPILE_BUGGY' not in skip)
+        g.add('FAILING_TESTS', self.stage_failing_tests, ['DELTA_BUGGY'])
+        g.add('HARNESS', self.stage_harness, ['COMPILE_BUGGY', 'FAILING_TESTS'],
+              enabled=self.harness)
+        g.add('SPECULATE_FIX', self.start_fix, ['COMPILE_BUGGY'],
+              enabled=self.config.get('speculative_fix', False))
+        after_buggy = ['COMPILE_BUGGY'] if self.workspace_cache is not None else []
+        g.add('CHECKOUT_PATCH', self.stage_checkout_patch, after_buggy,
+              enabled='CHECKOUT_PATCH' not in skip and not self.patch_overlay)
+        g.add('DELTA_PATCH', self.stage_delta_patch, ['CHECKOUT_PATCH'],
+              enabled='DELTA_PATCH' not in skip and not self.patch_overlay)
+        g.add('PATCH', self.stage_patch,
+              ['DELTA_PATCH'] + (['COMPILE_BUGGY'] if self.patch_overlay else []),
+              enabled='PATCH' not in skip)
+        g.add('COMPILE_PATCH', self.stage_compile_patch, ['PATCH'],
+              enabled='COMPILE_PATCH' not in skip and not self.patch_overlay)
+        self.patch_plausible = True
+        g.add('PATCH_TEST', self.stage_patch_test, ['COMPILE_PATCH', 'FAILING_TESTS', 'HARNESS'],
+              enabled='PATCH_TEST' not in skip)
+        return g
+
+    def stage_checkout_buggy(self):
+        logger.info('Check out (buggy) {} {}'.format(self.project, self.bug_id))
+        if self.checkout_buggy(self.project, self.bug_id) != 0:
+            raise PoracleException('check-out-buggy failed')
+
+    def stage_delta_buggy(self):
+        logger.info('Apply deltas for buggy')
+        self.apply_deltas_root(self.project, self.bug_id, self.dfj4_buggy_dir)
+
+    def stage_compile_buggy(self):
+        logger.info('Compile the buggy version')
+        if self.compile(self.dfj4_buggy_dir) != 0:
+            raise PoracleException('compiling buggy src failed')
+
+    def stage_failing_tests(self):
+        if self.set_failing_tests() != 0:
+            raise PoracleException('Failed to retrieve a faling test')
+
+        assert self.failing_tests is not None
+        for ft in self.failing_tests:
+            logger.info('Failing test: {}'.format(ft))
+
+        self.set_test_units()
+        assert len(self.test_units) > 0
+        if not self.exists_JQF_classes(self.test_units):
+            raise PoracleException('A JQF class does not exist')
+
+    def stage_harness(self):
+        logger.info('Build the JQF harness')
+        if self.build_harness() != 0:
+            raise PoracleException('building the JQF harness failed')
+
+    def stage_checkout_patch(self):
+        if self.checkout_patch(self.project, self.bug_id) != 0:
+            raise PoracleException('check-out failed (patch)')
+
+    def stage_delta_patch(self):
+        logger.info('Apply deltas for patch')
+        self.apply_deltas_root(self.project, self.bug_id, self.dfj4_patch_dir)
+
+    def stage_patch(self):
+        patch_file = join(self.patches_dir, self.patch_id)
+        if self.patch_overlay:
+            if self.overlay_patch(patch_file) != 0:
+                raise PoracleException('overlay-patch failed for {}'.format(patch_file))
+        elif self.apply_patch(patch_file) != 0:
+            cmd = 'patch -p1 -d {}  < {}'.format(self.dfj4_patch_dir, patch_file)
+            raise PoracleException('apply-patch failed (cmd: {})'.format(cmd))
+
+    def stage_compile_patch(self):
+        logger.info('Compile the patched version')
+        if self.compile(self.dfj4_patch_dir) != 0:
+            raise PoracleException('compiling patch src failed')
+
+    def stage_patch_test(self):
+        logger.info('Check whether the patch passes the test')
+        if not self.config.get('d4j_patch_test', False):
+            code = self.trigger_test()
+        else:
+            if self.patch_overlay:
+                self.materialize_patch_dir()
+            code = self.patch_test(self.dfj4_patch_dir)
+        if code != 0:
+            logger.warning('patch test failed')
+            self.patch_plausible = False
+
     def exists_JQF_classes(self, test_units):
         for test_unit in test_units:
             cls = test_unit.get_cls()
@@ -378,78 +442,183 @@ class Poracle:
         val_stat = None
         if judge == Judge.ACCEPT and self.correctness == "Correct":
             return Validate.MATCH, {'validation_size': 0}
-        if 'CHECKOUT_FIX' not in self.config['skip']:
+        self.wait_fix()
+
+        if 'REPRO_FOR_VALIDATE' not in self.config['skip']:
+            start_time = time.time()
+            logger.info('Run test input for validation')
+            self.repro_for_validate(test_unit, judge)
+            end_time = time.time()
+            elapsed_time = end_time - start_time
+            st.data['time']['REPRO_FOR_VALIDATE'] += elapsed_time
+
+        if 'VALIDATE' not in self.config['skip']:
+            start_time = time.time()
+            logger.info('Validate with fixed version')
+            result, val_stat = self.validate(test_unit, judge, val_stat)
+            end_time = time.time()
+            elapsed_time = end_time - start_time
+            st.data['time']['VALIDATE'] += elapsed_time
+
+        return result, val_stat
+
+    def prepare_fix(self, times, cancel=None):
+        # CHECKOUT_FIX, DELTA_FIX and COMPILE_FIX, timed into times; stops
+        # between them once cancel is set
+        def cancelled():
+            return cancel is not None and cancel.is_set()
+
+        if 'COMPILE_FIX' not in self.config['skip'] and self.fix_overlay:
+            start_time = time.time()
+            logger.info('Apply the fix as an overlay')
+            code = self.overlay_fix()
+            end_time = time.time()
+            times['COMPILE_FIX'] = end_time - start_time
+            if code != 0:
+                logger.warning('fix overlay failed, checking out the fixed version')
+                self.fix_overlay = False
+
+        if 'CHECKOUT_FIX' not in self.config['skip'] and not self.fix_overlay \
+                and not cancelled():
             start_time = time.time()
             logger.info('Check out (fix) {} {}'.format(self.project, self.bug_id))
             code = self.checkout_fix(self.project, self.bug_id)
             end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['CHECKOUT_FIX'] += elapsed_time
+            times['CHECKOUT_FIX'] = end_time - start_time
             if code != 0:
                 raise PoracleException('check-out failed (fix)')
 
-        if 'DELTA_FIX' not in self.config['skip']:
+        if 'DELTA_FIX' not in self.config['skip'] and not self.fix_overlay \
+                and not cancelled():
             start_time = time.time()
             logger.info('Apply deltas for patch')
             self.apply_deltas_root(self.project, self.bug_id,
                                    self.dfj4_fix_dir)
             end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['DELTA_FIX'] += elapsed_time
+            times['DELTA_FIX'] = end_time - start_time
 
-        if 'COMPILE_FIX' not in self.config['skip']:
+        if 'COMPILE_FIX' not in self.config['skip'] and not self.fix_overlay \
+                and not cancelled():
             start_time = time.time()
             logger.info('Compile the fixed version')
             code = self.compile(self.dfj4_fix_dir)
             end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['COMPILE_FIX'] += elapsed_time
+            times['COMPILE_FIX'] = times.get('COMPILE_FIX', 0) + end_time - start_time
             if code != 0:
                 raise PoracleException('compiling patch src failed')
 
-        if 'REPRO_FOR_VALIDATE' not in self.config['skip']:
-            start_time = time.time()
-            logger.info('Run test input for validation')
-            self.repro_for_validate(test_unit, judge)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['REPRO_FOR_VALIDATE'] += elapsed_time
+    def start_fix(self):
+        # the fixed version is prepared while fuzzing runs, and thrown away
+        # if no test unit needs validating
+        self.fix_cancel = threading.Event()
 
-        if 'VALIDATE' not in self.config['skip']:
+        def prepare():
+            try:
+                self.prepare_fix(self.fix_times, self.fix_cancel)
+            except Exception as e:
+                self.fix_error = e
+
+        self.fix_thread = threading.Thread(target=prepare, name='speculative-fix',
+                                           daemon=True)
+        self.fix_thread.start()
+
+    def wait_fix(self):
+        # the fixed version is prepared once for all the test units
+        if self.fix_ready:
+            return
+        if self.fix_thread is not None:
             start_time = time.time()
-            logger.info('Validate with fixed version')
-            result, val_stat = self.validate(test_unit, judge, val_stat)
-            end_time = time.time()
-            elapsed_time = end_time - start_time
-            st.data['time']['VALIDATE'] += elapsed_time
-
-        return result, val_stat
+            self.fix_thread.join()
+            self.fix_thread = None
+            st.data['speculative_fix'] = {'used': True,
+                                          'wait': time.time() - start_time,
+                                          'time': dict(self.fix_times)}
+            if self.fix_error is not None:
+                logger.warning('Preparing the fixed version in the background failed: {}'.
+                               format(self.fix_error))
+                self.fix_times = dict()
+                self.prepare_fix(self.fix_times)
+        else:
+            self.prepare_fix(self.fix_times)
+        for name, elapsed_time in self.fix_times.items():
+            st.data['time'][name] += elapsed_time
+        self.set_fix_project_cp()
+        self.fix_ready = True
+
+    def discard_fix(self):
+        # abandons the preparation rather than waiting for it: the command
+        # under way is killed with its process group, see run, and the
+        # thread, a daemon, stops at its next step; the fixed workspace it
+        # leaves behind is never used
+        if self.fix_thread is None:
+            return
+        self.fix_cancel.set()
+        self.kill_fix_proc()
+        abandoned = self.fix_thread.is_alive()
+        self.fix_thread = None
+        st.data['speculative_fix'] = {'used': False, 'abandoned': abandoned,
+                                      'time': dict(self.fix_times)}
+
+    def kill_fix_proc(self):
+        proc = self.fix_proc
+        if proc is not None and proc.poll() is None:
+            try:
+                os.killpg(proc.pid, signal.SIGKILL)
+            except ProcessLookupError:
+                pass
 
     def checkout_buggy(self, project, bug_id):
-        if exists(self.dfj4_buggy_dir):
-            shutil.rmtree(self.dfj4_buggy_dir)
+        remove_tree(self.dfj4_buggy_dir)
+        # the overlays only read the buggy workspace
+        if self.restore_workspace('b', self.dfj4_buggy_dir, link=self.fix_overlay):
+            return 0
         cmd = 'defects4j checkout -p ' + project + ' -v ' + bug_id + 'b' + \
               ' -w ' + self.dfj4_buggy_dir
         return self.run(cmd)
 
     def checkout_patch(self, project, bug_id):
         logger.info('Check out (patch) {} {}'.format(project, bug_id))
-        if exists(self.dfj4_patch_dir):
-            shutil.rmtree(self.dfj4_patch_dir)
+        remove_tree(self.dfj4_patch_dir)
+        if self.restore_workspace('b', self.dfj4_patch_dir):
+            return 0
         cmd = 'defects4j checkout -p ' + project + ' -v ' + bug_id + 'b' + \
               ' -w ' + self.dfj4_patch_dir
         return self.run(cmd)
 
     def checkout_fix(self, project, bug_id):
+        if self.restore_workspace('f', self.dfj4_fix_dir):
+            return 0
         cmd = 'defects4j checkout -p ' + project + ' -v ' + bug_id + 'f' + \
               ' -w ' + self.dfj4_fix_dir
         return self.run(cmd)
 
+    def restore_workspace(self, version, dst, link=False):
+        self.restored.discard(dst)
+        self.checked_out.pop(dst, None)
+        self.to_store.pop(dst, None)
+        if self.workspace_cache is None:
+            return False
+        if self.harness:
+            # main-only compiles are kept apart from the full ones
+            version += 'm'
+        key = self.workspace_cache.entry(self.project, self.bug_id, version,
+                                         self.deltas_hash)
+        if self.workspace_cache.restore(key, dst, link):
+            self.restored.add(dst)
+            return True
+        self.checked_out[dst] = key
+        return False
+
     def apply_deltas_root(self, project, bug_id, dst_dir_root):
+        if dst_dir_root in self.restored:
+            logger.info('Deltas already applied in the cached workspace')
+            return
         self.apply_deltas(join(self.deltas_dir, project,
                                '{}_bug{}'.format(project,
                                                  bug_id)),
                           dst_dir_root)
+        if dst_dir_root in self.checked_out:
+            self.to_store[dst_dir_root] = self.checked_out.pop(dst_dir_root)
 
     def apply_deltas(self, src_dir_root, dst_dir_root):
         if not isdir(dst_dir_root):
@@ -474,11 +643,126 @@ class Poracle:
 
     def apply_patch(self, patch_file):
         logger.info('Apply patch file {}'.format(patch_file))
+        self.restored.discard(self.dfj4_patch_dir)
+        self.checked_out.pop(self.dfj4_patch_dir, None)
+        self.to_store.pop(self.dfj4_patch_dir, None)
         cmd = 'patch -p1 -d {}  < {}'.format(self.dfj4_patch_dir, patch_file)
         return self.run(cmd)
 
+    def java_tool(self, name, cp=None):
+        # src/<name>.java, compiled once per work dir (or tools_dir, which
+        # the daemon keeps) by the JDK that runs Defects4J; stages of
+        # different threads may need the same tool
+        tool_dir = self.config.get('tools_dir') or join(self.workdir, 'tools')
+        os.makedirs(tool_dir, exist_ok=True)
+        with self.tool_lock, open(join(tool_dir, '.lock'), 'w') as lock:
+            fcntl.flock(lock, fcntl.LOCK_EX)
+            if not exists(join(tool_dir, name + '.class')):
+                src = join(os.path.dirname(os.path.abspath(__file__)),
+                           name + '.java')
+                cmd = 'javac -nowarn -d {} {}{}'.format(
+                    tool_dir, '-cp {} '.format(cp) if cp else '', src)
+                if self.run(cmd) != 0:
+                    raise PoracleException('failed to compile {}'.format(src))
+        return tool_dir
+
+    def make_overlay(self, patch_file, overlay_dir, reverse=False):
+        # the patched sources go to <overlay_dir>/src and their classes,
+        # compiled against the buggy ones, to <overlay_dir>/classes
+        remove_tree(overlay_dir)
+        compile_cp = self.check_output('defects4j export -p cp.compile -w {}'.
+                                       format(self.dfj4_buggy_dir)).decode()
+        if not compile_cp:
+            return 1
+        cmd = 'java -cp {} PatchOverlay {} {} {} {}{}'.format(
+            self.java_tool('PatchOverlay'), self.dfj4_buggy_dir, patch_file,
+            overlay_dir, compile_cp, ' -R' if reverse else '')
+        return self.run(cmd)
+
+    def overlay_patch(self, patch_file):
+        logger.info('Apply patch file {} as an overlay'.format(patch_file))
+        return self.make_overlay(patch_file, self.patch_overlay_dir)
+
+    def d4j_home(self):
+        home = os.environ.get('D4J_HOME')
+        if home is None:
+            d4j = shutil.which('defects4j')
+            if d4j is None:
+                return None
+            # <home>/framework/bin/defects4j
+            home = dirname(dirname(dirname(os.path.realpath(d4j))))
+        return home
+
+    def d4j_fix_patch(self):
+        # Defects4J keeps each fix as the patch from the fixed to the buggy
+        # sources, so the fix is that patch reversed
+        home = self.d4j_home()
+        if home is None:
+            return None
+        return join(home, 'framework', 'projects', self.project, 'patches',
+                    '{}.src.patch'.format(self.bug_id))
+
+    def overlay_fix(self):
+        # built once, every test unit validates against the same fix
+        if self.fix_overlay_ready:
+            return 0
+        patch_file = self.d4j_fix_patch()
+        if patch_file is None or not exists(patch_file):
+            logger.warning('No Defects4J patch for {} {}'.format(self.project, self.bug_id))
+            return 1
+        code = self.make_overlay(patch_file, self.fix_overlay_dir, reverse=True)
+        self.fix_overlay_ready = code == 0
+        return code
+
+    def materialize_patch_dir(self):
+        # defects4j test needs a workspace: a copy of the buggy one, with
+        # the patched sources and, newer than them so that nothing is
+        # rebuilt, their classes; not links, since the build of defects4j
+        # test may rewrite any file of the tree in place, and the buggy
+        # workspace may be linked from the workspace cache
+        remove_tree(self.dfj4_patch_dir)
+        shutil.copytree(self.dfj4_buggy_dir, self.dfj4_patch_dir, symlinks=True)
+        classes_dir = self.check_output('defects4j export -p dir.bin.classes -w {}'.
+                                        format(self.dfj4_buggy_dir)).decode()
+        for sub, dst_root in [('src', self.dfj4_patch_dir),
+                              ('classes', join(self.dfj4_patch_dir, classes_dir))]:
+            src_root = join(self.patch_overlay_dir, sub)
+            for src_dir, dirs, files in walk(src_root):
+                for file in files:
+                    src = join(src_dir, file)
+                    dst = join(dst_root, relpath(src, src_root))
+                    if exists(dst):
+                        os.unlink(dst)
+                    os.makedirs(dirname(dst), exist_ok=True)
+                    copyfile(src, dst)
+        # written by defects4j test
+        for file in ['failing_tests', 'all_tests']:
+            if exists(join(self.dfj4_patch_dir, file)):
+                os.unlink(join(self.dfj4_patch_dir, file))
+
     def compile(self, workdir):
-        cmd = 'defects4j compile -w ' + workdir
+        if workdir in self.restored:
+            logger.info('Already compiled in the cached workspace')
+            return 0
+        if self.harness:
+            code = self.compile_main(workdir)
+        else:
+            code = self.run('defects4j compile -w ' + workdir)
+        if code == 0 and workdir in self.to_store:
+            self.workspace_cache.store(self.to_store.pop(workdir), workdir)
+        return code
+
+    def compile_main(self, workdir):
+        # the ant call of "defects4j compile" for its compile target only,
+        # so the test tree is left out
+        home = self.d4j_home()
+        if home is None:
+            return 1
+        projects = join(home, 'framework', 'projects')
+        ant = join(home, 'major', 'bin', 'ant')
+        cmd = 'cd {} && {} -q -f {} -Dd4j.home={} -Dd4j.dir.projects={} -Dbasedir={} compile'.format(
+            workdir, ant if exists(ant) else 'ant', join(projects, 'defects4j.build.xml'),
+            home, projects, workdir)
         return self.run(cmd)
 
     def patch_test(self, workdir):
@@ -498,6 +782,44 @@ class Poracle:
 
         return 0
 
+    def trigger_test(self):
+        # the trigger tests in one JVM, on the test class path of the patched
+        # version, from its workspace; for an overlay from a directory of
+        # its own instead, as the buggy workspace may be linked from the
+        # workspace cache and a test could rewrite a file of it in place
+        if self.patch_overlay:
+            workdir = self.prep_dir(join(self.workdir, 'trigger'))
+            test_cp = ':'.join([join(self.patch_overlay_dir, 'classes'),
+                                self.check_output('defects4j export -p cp.test -w {}'.
+                                                  format(self.dfj4_buggy_dir)).decode()])
+        else:
+            workdir = self.dfj4_patch_dir
+            test_cp = self.check_output('defects4j export -p cp.test -w {}'.
+                                        format(workdir)).decode()
+        if self.harness_jar is not None:
+            test_cp = ':'.join([self.harness_jar, test_cp])
+        results_file = join(self.workdir, 'trigger_tests')
+        if exists(results_file):
+            os.unlink(results_file)
+        cmd = 'cd {} && java -Djava.awt.headless=true -cp {}:{} TriggerTestRunner {} {} {}'.format(
+            workdir, self.java_tool('TriggerTestRunner', test_cp), test_cp,
+            results_file, TRIGGER_TEST_TIMEOUT, ' '.join(self.failing_tests))
+        self.run(cmd)
+        results = dict()
+        if exists(results_file):
+            with open(results_file) as f:
+                for line in f.read().splitlines():
+                    fields = line.split('\t')
+                    if len(fields) >= 2:
+                        results[fields[1]] = fields[0]
+                        if fields[0] != 'PASS':
+                            logger.info('Trigger test failed: {}'.format(line))
+        st.data['trigger_tests'] = results
+        # a test the runner did not get to, e.g. after a crash, fails
+        if all(results.get(ft) == 'PASS' for ft in self.failing_tests):
+            return 0
+        return 1
+
     def set_failing_tests(self):
         logger.info('Retrieving a failing test')
         with tempfile.NamedTemporaryFile() as fp:
@@ -518,22 +840,82 @@ class Poracle:
             test_unit.set_test_id('test' + str(idx))
             idx += 1
 
+    def harness_jar_path(self):
+        # shared by the patches of a bug through the workspace cache
+        if self.workspace_cache is not None:
+            return self.workspace_cache.entry(self.project, self.bug_id, 'h',
+                                              self.deltas_hash) + '.jar'
+        return join(self.workdir, 'harness.jar')
+
+    def build_harness(self):
+        # the JQF_* drivers of the deltas and the trigger tests, with the
+        # test classes they use, compiled from the test sources against the
+        # main classes of the buggy workspace; the rest of the test tree is
+        # left alone
+        jar = self.harness_jar_path()
+        if exists(jar):
+            logger.info('Reuse the JQF harness {}'.format(jar))
+            self.harness_jar = jar
+            return 0
+        test_dir = self.get_project_test_dir()
+        deltas_test_dir = join(self.deltas_dir, self.project,
+                               '{}_bug{}'.format(self.project, self.bug_id),
+                               test_dir)
+        sources = set()
+        for src_dir, dirs, files in walk(deltas_test_dir):
+            for file in files:
+                if file.startswith('JQF_') and file.endswith('.java'):
+                    sources.add(join(self.dfj4_buggy_dir, test_dir,
+                                     relpath(join(src_dir, file), deltas_test_dir)))
+        if len(sources) == 0:
+            return 1
+        for ft in self.failing_tests:
+            cls = ft.split('::')[0].split('$')[0]
+            src = join(self.dfj4_buggy_dir, test_dir, cls.replace('.', '/') + '.java')
+            if exists(src):
+                sources.add(src)
+        test_cp = self.check_output('defects4j export -p cp.test -w {}'.
+                                    format(self.dfj4_buggy_dir)).decode()
+        cp = ':'.join(filter(None, [test_cp, self.config['tracing_jar'],
+                                    os.environ.get('CLASSPATH')]))
+        build_dir = tempfile.mkdtemp(prefix='harness', dir=self.workdir)
+        try:
+            # as the JQF javac task of the deltas' build files
+            cmd = 'javac -nowarn -source 1.8 -target 1.8 -implicit:class -d {} -cp {} -sourcepath {} {}'.\
+                format(build_dir, cp, join(self.dfj4_buggy_dir, test_dir), ' '.join(sorted(sources)))
+            code = self.run(cmd)
+            if code != 0:
+                return code
+            tmp = '{}.{}.tmp'.format(jar, os.getpid())
+            code = self.run('jar cf {} -C {} .'.format(tmp, build_dir))
+            if code != 0:
+                return code
+            os.rename(tmp, jar)
+            self.harness_jar = jar
+            return 0
+        finally:
+            shutil.rmtree(build_dir, ignore_errors=True)
+
     def get_project_cp(self, dir):
 
         def add_prefix(path):
             return join(dir, path)
 
+        # the test classes, then the main ones
         if self.project in ['Math']:
-            cp = ['target/test-classes', 'target/classes']
+            tests, classes = ['target/test-classes'], ['target/classes']
         elif self.project in ['Time']:
-            cp = ['target/test-classes', 'target/classes', 'build/tests', 'build/classes']
+            tests, classes = ['target/test-classes'], ['target/classes', 'build/tests', 'build/classes']
         elif self.project in ['Lang']:
-            cp = ['target/tests', 'target/classes']
+            tests, classes = ['target/tests'], ['target/classes']
         elif self.project in ['Chart']:
-            cp = ['build', 'build-tests']
+            tests, classes = [], ['build', 'build-tests']
         else:
             raise PoracleException('Unsupported project: {}'.format(self.project))
-        return ':'.join(map(add_prefix, cp))
+        if self.harness_jar is not None:
+            # the harness stands for the test tree, which is not compiled
+            return ':'.join([self.harness_jar] + list(map(add_prefix, classes)))
+        return ':'.join(map(add_prefix, tests + classes))
 
     def get_project_test_dir(self):
         if self.project in ['Math', 'Time']:
@@ -563,12 +945,22 @@ class Poracle:
 
     def set_patch_project_cp(self):
         logger.info('Retrieving a patch project class path')
-        self.patch_project_cp = self.get_project_cp(self.dfj4_patch_dir)
+        if self.patch_overlay:
+            # classes the patch removes, e.g. anonymous ones, stay visible
+            # from the buggy classes but nothing patched refers to them
+            self.patch_project_cp = ':'.join([join(self.patch_overlay_dir, 'classes'),
+                                              self.get_project_cp(self.dfj4_buggy_dir)])
+        else:
+            self.patch_project_cp = self.get_project_cp(self.dfj4_patch_dir)
         logger.debug('patch_project_cp: {}'.format(self.patch_project_cp))
 
     def set_fix_project_cp(self):
         logger.info('Retrieving a fix project class path')
-        self.fix_project_cp = self.get_project_cp(self.dfj4_fix_dir)
+        if self.fix_overlay:
+            self.fix_project_cp = ':'.join([join(self.fix_overlay_dir, 'classes'),
+                                            self.get_project_cp(self.dfj4_buggy_dir)])
+        else:
+            self.fix_project_cp = self.get_project_cp(self.dfj4_fix_dir)
         logger.debug('fix_project_cp: {}'.format(self.fix_project_cp))
 
     '''
@@ -590,6 +982,7 @@ class Poracle:
                                     test_unit.get_test_id(),
                                     str(thread_id)))
         fuzz_out_dir = self.prep_dir(join(self.fuzz_out_dir, test_unit.get_test_id()))
+        buggy_cp = self.cds_classpath(self.buggy_project_cp)
         cmd = 'zest --target {} \
         --logdir {} \
         --seed {} \
@@ -617,13 +1010,13 @@ class Poracle:
                                   self.delta_allowed,
                                   '--opad' if self.config['use_opad'] else '',
                                   join(fuzz_out_dir, str(thread_id)),
-                                  ':'.join([self.buggy_project_cp,
+                                  ':'.join([buggy_cp,
                                             self.config['tracing_jar']]),
-                                  ':'.join([self.patch_project_cp,
+                                  ':'.join([self.cds_classpath(self.patch_project_cp),
                                             self.config['tracing_jar']]),
                                   test_unit.get_cls(), test_unit.get_mthd())
 
-        if self.run(cmd) != 0:
+        if self.run(cmd, self.cds_env(buggy_cp)) != 0:
             raise PoracleException('zest-patch failed with thread {}'.format(thread_id))
 
         # check whether target_hit directory is empty or not
@@ -674,6 +1067,7 @@ class Poracle:
         if not exists(input_file):
             raise PoracleException('File does not exist: {}'.format(input_file))
 
+        project_cp = self.cds_classpath(project_cp)
         args = '{} {} {}'.format(test_unit.get_cls(), test_unit.get_mthd(), input_file)
         if log_dir is not None:
             args = '--logdir {} {}'.format(log_dir, args)
@@ -695,7 +1089,7 @@ class Poracle:
 
             event_handler.on_created = on_created
 
-        code = self.run(cmd)
+        code = self.run(cmd, self.cds_env(project_cp))
 
         #  wait until OUT.log becomes ready
         if log_dir is not None:
@@ -716,13 +1110,51 @@ class Poracle:
         if code != 0:
             raise PoracleException('failed to zest-repro with {}'.format(input_file))
 
+    def cds_classpath(self, project_cp):
+        # the class path the JVMs run on, see CDSArchives.classpath
+        if self.cds is None:
+            return project_cp
+        return self.cds.classpath(project_cp)
+
+    def cds_env(self, project_cp, env=os.environ):
+        # the first JVM on project_cp, a cds_classpath, is preceded by a
+        # training run: the JQF harness of the first test unit on a fixed
+        # input
+        if self.cds is None:
+            return env
+        if not self.cds.trained(project_cp):
+            start_time = time.time()
+            train_dir = tempfile.mkdtemp(prefix='cds', dir=self.workdir)
+            try:
+                input_file = join(train_dir, 'input')
+                with open(input_file, 'wb') as f:
+                    f.write(bytes(random.Random(0).getrandbits(8) for _ in range(256)))
+                test_unit = self.test_units[0]
+                cmd = 'zest-repro --cp {} --logdir {} {} {} {}'.format(
+                    project_cp, join(train_dir, 'log'), test_unit.get_cls(),
+                    test_unit.get_mthd(), input_file)
+                self.cds.train(project_cp, lambda train_env: self.run(cmd, train_env))
+            finally:
+                shutil.rmtree(train_dir, ignore_errors=True)
+            st.data['time']['CDS'] += time.time() - start_time
+        return self.cds.env(project_cp, env)
+
     def run(self, cmd, env=os.environ):
         logger.debug('cmd: {}'.format(cmd))
+        # the commands of the speculative fix run in a process group of
+        # their own, for discard_fix to kill
+        fix_step = self.fix_thread is not None and \
+            threading.current_thread() is self.fix_thread
         proc = subprocess.Popen(cmd,
                                 env=env,
                                 stdout=self.subproc_output,
                                 stderr=self.subproc_output,
-                                shell=True)
+                                shell=True,
+                                start_new_session=fix_step)
+        if fix_step:
+            self.fix_proc = proc
+            if self.fix_cancel.is_set():
+                self.kill_fix_proc()
         try:
             code = proc.wait()
             # logger.debug('code: {}'.format(code))
@@ -821,6 +1253,14 @@ class Poracle:
             return False
 
     def train_model(self, test_unit):
+        # the learning-based predictor is loaded by the first run that uses
+        # it, so that runs without it (and the daemon) start quickly
+        import pandas as pd
+        from sklearn.preprocessing import MinMaxScaler
+        from sklearn.model_selection import train_test_split
+        from tensorflow.python.keras.models import Sequential
+        from tensorflow.python.keras.layers import Dense
+
         data_san_file = join(self.data_buggy_dir, test_unit.get_test_id(), 'data_san.csv')
         with open(data_san_file, 'r') as f:
             line = f.readline().split(':', 1)[1]
@@ -893,6 +1333,8 @@ class Poracle:
     Get row IDs (the first column)
     '''
     def get_row_ids(self, data_san_file):
+        import numpy as np
+        import pandas as pd
         if self.file_empty(data_san_file):
             return np.empty(0)
 
@@ -1015,13 +1457,13 @@ class Poracle:
             lines = of.readlines()
             return len(lines) <= 0
 
-    def max_row_idx(self, arr: np.ndarray):
+    def max_row_idx(self, arr: 'np.ndarray'):
         if arr.size == 0:
             return 1
         else:
             return max(arr)
 
-    def min_row_idx(self, arr: np.ndarray):
+    def min_row_idx(self, arr: 'np.ndarray'):
         if arr.size == 0:
             return 1
         else:
@@ -0,0 +1,48 @@
+import json
+import logging
+import pathlib
+from os.path import join, exists
+from shutil import copyfile
+
+logger = logging.getLogger("runexp")
+
+
+def prep_dir(d):
+    if not exists(d):
+        pathlib.Path(d).mkdir(parents=True, exist_ok=True)
+
+
+def collect(workdir, code, config_file, result_dir, failure_dir):
+    # the statistics, log and diff a poracle run left in workdir, into
+    # result_dir when it exited with code 0, else into failure_dir; shared
+    # by runexp_all and runexp_parallel
+    stat_file = join(workdir, 'statistics.json')
+    log_file = join(workdir, 'poracle.log')
+    diff_file = join(workdir, 'diff')
+    if code == 0:
+        if not exists(stat_file):
+            logger.error('File does not exist: {}'.format(stat_file))
+        else:
+            prep_dir(result_dir)
+            with open(stat_file) as json_file:
+                data = json.load(json_file)
+            if len(data['test_results']) > 0:
+                if len(data['test_results'][0]) > 4:
+                    copyfile(data['test_results'][0]['in'], join(result_dir, 'in.log'))
+                    copyfile(data['test_results'][0]['org_out'], join(result_dir, 'org_out.log'))
+                    copyfile(data['test_results'][0]['patch_out'], join(result_dir, 'patch_out.log'))
+                    copyfile(data['test_results'][0]['fix_out'], join(result_dir, 'fix_out.log'))
+            copyfile(stat_file, join(result_dir, 'statistics.json'))
+            if exists(log_file):
+                copyfile(log_file, join(result_dir, 'poracle.log'))
+            if exists(diff_file):
+                copyfile(diff_file, join(result_dir, 'diff'))
+    else:
+        logger.error('Failed for {}'.format(config_file))
+        if not exists(stat_file):
+            logger.error('File does not exist: {}'.format(stat_file))
+        else:
+            prep_dir(failure_dir)
+            copyfile(stat_file, join(failure_dir, 'statistics.json'))
+            if exists(log_file):
+                copyfile(log_file, join(failure_dir, 'poracle.log'))
@@ -0,0 +1,119 @@
+import logging
+import time
+from concurrent.futures import ThreadPoolExecutor, FIRST_COMPLETED, wait
+
+logger = logging.getLogger("stages")
+
+
+class Stage:
+    def __init__(self, name, fn, deps):
+        self.name = name
+        self.fn = fn
+        self.deps = deps
+        self.start = None
+        self.end = None
+
+    def duration(self):
+        if self.start is None or self.end is None:
+            return 0
+        return self.end - self.start
+
+
+class StageGraph:
+    """
+    Stages of a run and the stages each of them needs, run on up to
+    `workers` threads: a stage starts as soon as its dependencies are done,
+    in the order the stages were added when several are ready. A stage can
+    only depend on stages added before it, so the graph has no cycle and the
+    order of addition is a topological one. Disabled stages (skipped ones)
+    are done at once without running. When a stage raises, no further stage
+    is started and the first exception is raised once the running ones end.
+    """
+
+    def __init__(self):
+        self.stages = dict()
+        self.origin = None
+        self.finish = None
+
+    def add(self, name, fn, deps=(), enabled=True):
+        for dep in deps:
+            if dep not in self.stages:
+                raise ValueError('{} depends on unknown stage {}'.format(name, dep))
+        self.stages[name] = Stage(name, fn if enabled else None, list(deps))
+        return name
+
+    def timed(self, stage):
+        stage.start = time.time()
+        try:
+            stage.fn()
+        finally:
+            stage.end = time.time()
+
+    def run(self, workers=1):
+        self.origin = time.time()
+        pending = list(self.stages.values())
+        running = dict()
+        done = set()
+        error = None
+        with ThreadPoolExecutor(max_workers=workers) as executor:
+            while True:
+                for stage in list(pending):
+                    if error is not None or len(running) >= workers:
+                        break
+                    if not all(dep in done for dep in stage.deps):
+                        continue
+                    pending.remove(stage)
+                    if stage.fn is None:
+                        done.add(stage.name)
+                        continue
+                    logger.debug('start stage {}'.format(stage.name))
+                    running[executor.submit(self.timed, stage)] = stage
+                if len(running) == 0:
+                    # a disabled stage may have made others ready
+                    if error is None and any(all(dep in done for dep in s.deps)
+                                             for s in pending):
+                        continue
+                    break
+                finished, _ = wait(running, return_when=FIRST_COMPLETED)
+                for future in finished:
+                    stage = running.pop(future)
+                    try:
+                        future.result()
+                        done.add(stage.name)
+                    except BaseException as e:
+                        logger.debug('stage {} failed'.format(stage.name))
+                        if error is None:
+                            error = e
+        self.finish = time.time()
+        if error is not None:
+            raise error
+
+    def durations(self):
+        return {s.name: s.duration() for s in self.stages.values()
+                if s.start is not None}
+
+    def critical_path(self):
+        # the chain of dependencies with the longest measured time, which
+        # bounds the wall time of the stages however many workers there are
+        longest = dict()
+        for s in self.stages.values():
+            before = max((longest[dep] for dep in s.deps),
+                         key=lambda p: p[0], default=(0, []))
+            longest[s.name] = (before[0] + s.duration(), before[1] + [s.name])
+        return max(longest.values(), key=lambda p: p[0], default=(0, []))
+
+    def timing(self):
+        # seconds relative to the start of run()
+        length, path = self.critical_path()
+        stages = dict()
+        for s in self.stages.values():
+            if s.start is None:
+                continue
+            stages[s.name] = {'start': s.start - self.origin,
+                              'end': s.end - self.origin,
+                              'deps': s.deps}
+        return {'wall': (self.finish or time.time()) - self.origin,
+                'critical_path': [name for name in path
+                                  if self.stages[name].start is not None],
+                'critical_path_time': length,
+                'stages': stages}
@@ -18,6 +18,8 @@ def init(working_dir, config_file, poracle_config, config_data):
     data['time'] = {'CHECKOUT_BUGGY': 0,
                     'DELTA_BUGGY': 0,
                     'COMPILE_BUGGY': 0,
+                    'HARNESS': 0,
+                    'CDS': 0,
                     'ZEST_BUGGY': 0,
                     'PREP_DATA': 0,
                     'SANITIZE_DATA': 0,
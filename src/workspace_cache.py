@@ -0,0 +1,98 @@
+import errno
+import fcntl
+import hashlib
+import logging
+import os
+import shutil
+from os import walk
+from os.path import join, exists, islink, relpath
+
+logger = logging.getLogger("workspace_cache")
+
+
+def deltas_hash(deltas_root):
+    # content hash of the deltas of a bug: relative paths and file contents
+    h = hashlib.sha1()
+    if not exists(deltas_root):
+        return h.hexdigest()
+    for src_dir, dirs, files in walk(deltas_root):
+        dirs.sort()
+        for file in sorted(files):
+            path = join(src_dir, file)
+            h.update(relpath(path, deltas_root).encode())
+            h.update(b'\0')
+            with open(path, 'rb') as f:
+                h.update(f.read())
+            h.update(b'\0')
+    return h.hexdigest()
+
+
+def remove_tree(path):
+    if islink(path):
+        os.unlink(path)
+    elif exists(path):
+        shutil.rmtree(path)
+
+
+def link_or_copy(src, dst):
+    try:
+        os.link(src, dst)
+    except OSError as e:
+        if e.errno not in (errno.EXDEV, errno.EPERM, errno.EMLINK):
+            raise
+        shutil.copy2(src, dst)
+
+
+def link_tree(src, dst):
+    # a tree of hard links to the files of src: directories are new, file
+    # contents shared, so a file of dst is unlinked before it is rewritten
+    remove_tree(dst)
+    shutil.copytree(src, dst, symlinks=True, copy_function=link_or_copy)
+
+
+class WorkspaceCache:
+    """
+    Checked-out, delta-applied and compiled Defects4J workspaces, one per
+    project, bug, version ('b' or 'f', with an 'm' suffix when only the
+    main sources were compiled) and deltas hash:
+      <root>/<project>-<bug_id><version>-<deltas hash>/
+    The JQF harness jar of a bug sits next to them as
+    <project>-<bug_id>h-<deltas hash>.jar.
+    An entry is copied in under a temporary name and renamed once complete,
+    so it is never seen half written and is not modified afterwards. Runs
+    restore a workspace by copying the entry, with modification times kept
+    so that the next compile only rebuilds what was changed since, or, with
+    link, as a tree of hard links that must not be modified in place.
+    """
+
+    def __init__(self, root):
+        self.root = root
+        os.makedirs(root, exist_ok=True)
+
+    def entry(self, project, bug_id, version, deltas):
+        return join(self.root, '{}-{}{}-{}'.format(project, bug_id, version,
+                                                    deltas))
+
+    def restore(self, key, dst, link=False):
+        if not exists(key):
+            return False
+        logger.info('Restore {} from {}'.format(dst, key))
+        if link:
+            link_tree(key, dst)
+            return True
+        remove_tree(dst)
+        shutil.copytree(key, dst, symlinks=True)
+        return True
+
+    def store(self, key, src):
+        # patches of a bug may finish their first compile at the same time
+        with open(key + '.lock', 'w') as lock:
+            fcntl.flock(lock, fcntl.LOCK_EX)
+            if exists(key):
+                return
+            logger.info('Store {} as {}'.format(src, key))
+            tmp = key + '.tmp'
+            if exists(tmp):
+                shutil.rmtree(tmp)
+            shutil.copytree(src, tmp, symlinks=True)
+            os.rename(tmp, key)